@@ -4,8 +4,11 @@ import com.penguinpush.cullergrader.logic.*;
 import com.penguinpush.cullergrader.media.*;
 import com.penguinpush.cullergrader.config.AppConstants;
 import com.penguinpush.cullergrader.config.ExecutionMode;
+import com.penguinpush.cullergrader.expression.EvaluationProfile;
+import com.penguinpush.cullergrader.expression.ExpressionException;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
@@ -31,6 +34,9 @@ public class CLI {
     private String outputPath = null;
     private String rejectedOutputPath = null;
     private String jsonPath = null;
+    private boolean explain = false;
+    private String sweepPath = null;
+    private final List<String> sweepStrategies = new ArrayList<>();
     private float timeThreshold = AppConstants.TIME_THRESHOLD_SECONDS;
     private float similarityThreshold = AppConstants.SIMILARITY_THRESHOLD_PERCENT;
 
@@ -60,6 +66,21 @@ public class CLI {
             return EXIT_FAILURE;
         }
 
+        // Validate strategy sweep
+        StrategySweep sweep = null;
+        if (sweepPath != null || !sweepStrategies.isEmpty()) {
+            if (sweepPath == null || sweepStrategies.size() < 2) {
+                System.err.println("Error: --sweep requires a report path and at least two --strategy values.");
+                return EXIT_FAILURE;
+            }
+            try {
+                sweep = new StrategySweep(sweepStrategies);
+            } catch (ExpressionException e) {
+                System.err.println("Error: " + e.getMessage());
+                return EXIT_FAILURE;
+            }
+        }
+
         // Validate input directory
         File inputFolder = new File(inputPath);
         if (!inputFolder.exists() || !inputFolder.isDirectory()) {
@@ -104,7 +125,7 @@ public class CLI {
 
         // Execute workflow
         try {
-            executeWorkflow(inputFolder, outputFolder, rejectedOutputFolder);
+            executeWorkflow(inputFolder, outputFolder, rejectedOutputFolder, sweep);
             return EXIT_SUCCESS;
         } catch (Exception e) {
             System.err.println("Error: Processing failed - " + e.getMessage());
@@ -158,6 +179,29 @@ public class CLI {
                 jsonPath = args[++i];
             }
 
+            // Strategy explain/profiling mode
+            else if (arg.equals("--explain") || arg.equals("-e")) {
+                explain = true;
+            }
+
+            // Strategy sweep report path
+            else if (arg.equals("--sweep")) {
+                if (i + 1 >= args.length) {
+                    System.err.println("Error: --sweep requires a value");
+                    return false;
+                }
+                sweepPath = args[++i];
+            }
+
+            // Candidate strategy for the sweep (repeatable)
+            else if (arg.equals("--strategy")) {
+                if (i + 1 >= args.length) {
+                    System.err.println("Error: --strategy requires a value");
+                    return false;
+                }
+                sweepStrategies.add(args[++i]);
+            }
+
             // Time threshold
             else if (arg.equals("--time") || arg.equals("-t")) {
                 if (i + 1 >= args.length) {
@@ -212,8 +256,9 @@ public class CLI {
      * @param inputFolder Input directory containing photos
      * @param outputFolder Output directory for best takes
      * @param rejectedOutputFolder Output directory for rejected takes
+     * @param sweep Strategies to compare against the same groups (null if not sweeping)
      */
-    private void executeWorkflow(File inputFolder, File outputFolder, File rejectedOutputFolder) {
+    private void executeWorkflow(File inputFolder, File outputFolder, File rejectedOutputFolder, StrategySweep sweep) {
         long startTime = System.currentTimeMillis();
         boolean previewMode = (outputFolder == null && rejectedOutputFolder == null);
 
@@ -237,6 +282,11 @@ public class CLI {
         // Load and hash photos
         System.out.println("Loading and hashing photos from: " + inputFolder.getAbsolutePath());
         GroupingEngine engine = new GroupingEngine(mode);
+        EvaluationProfile strategyProfile = null;
+        if (explain) {
+            strategyProfile = new EvaluationProfile();
+            engine.setStrategyProfile(strategyProfile);
+        }
         List<Photo> photos = engine.photoListFromFolder(inputFolder);
 
         if (photos.isEmpty()) {
@@ -254,17 +304,40 @@ public class CLI {
         System.out.println("Created " + groups.size() + " groups from " + photos.size() + " photos");
         System.out.println();
 
+        // Print strategy profile if requested
+        if (strategyProfile != null) {
+            System.out.println("Selection strategy profile: " + AppConstants.SELECTION_STRATEGY);
+            System.out.println("--------------------------------------------");
+            System.out.print(strategyProfile.formatSummary());
+            System.out.println();
+        }
+
         // Export JSON if requested
         if (jsonPath != null) {
             File jsonFile = new File(jsonPath);
             System.out.println("Exporting group information to: " + jsonFile.getAbsolutePath());
-            FileUtils.exportGroupsJson(groups, jsonFile, timeThreshold, similarityThreshold);
+            FileUtils.exportGroupsJson(groups, jsonFile, timeThreshold, similarityThreshold, strategyProfile);
             System.out.println();
         }
 
 
-        // Export or preview
-        if (previewMode) {
+        // Compare candidate strategies against the groups built above
+        if (sweep != null) {
+            File sweepFile = new File(sweepPath);
+            System.out.println("Strategy sweep (" + sweep.getStrategies().size() + " strategies):");
+            System.out.println("--------------------------------------------");
+            sweep.run(groups);
+            for (int i = 0; i < sweep.getStrategies().size(); i++) {
+                System.out.println(sweep.getSelectedCount(i) + " selected - " + sweep.getStrategies().get(i));
+            }
+            System.out.println();
+            System.out.println("Exporting strategy sweep to: " + sweepFile.getAbsolutePath());
+            FileUtils.exportSweepJson(sweep, groups, sweepFile, timeThreshold, similarityThreshold);
+            System.out.println();
+        }
+
+        // Export or preview (the sweep report replaces the preview listing)
+        if (previewMode && sweep == null) {
             System.out.println("Preview - Selected takes that would be exported:");
             System.out.println("--------------------------------------------");
             int totalSelected = 0;
@@ -321,6 +394,9 @@ public class CLI {
         System.out.println("  -o, --output <path>           Output folder for best takes (optional, preview mode if omitted)");
         System.out.println("  -r, --rejected-output <path>  Output folder for rejected takes (optional)");
         System.out.println("  -j, --json <path>             Export group information to JSON file (optional)");
+        System.out.println("  -e, --explain                 Profile the selection strategy (per-node counts, timing, per-photo variables)");
+        System.out.println("  --sweep <path>                Compare strategies in one pass, write the report to a JSON file");
+        System.out.println("  --strategy <expression>       Candidate strategy for --sweep (repeat for each, at least two)");
         System.out.println("  -t, --time <seconds>          Time threshold in seconds (default: " + AppConstants.TIME_THRESHOLD_SECONDS + ")");
         System.out.println("  -s, --similarity <percent>    Similarity threshold 0-100 (default: " + AppConstants.SIMILARITY_THRESHOLD_PERCENT + ")");
         System.out.println("  -h, --help                    Show this help message");
@@ -341,6 +417,12 @@ public class CLI {
         System.out.println("  # Export both files and JSON");
         System.out.println("  java -jar cullergrader.jar -i /photos -o /export --json /export/groups.json");
         System.out.println();
+        System.out.println("  # Explain why each photo was selected, with details in the JSON export");
+        System.out.println("  java -jar cullergrader.jar -i /photos --explain --json groups.json");
+        System.out.println();
+        System.out.println("  # Compare candidate strategies without regrouping");
+        System.out.println("  java -jar cullergrader.jar -i /photos --sweep sweep.json --strategy first --strategy \"index == 0 || minDistanceToSelected > 15\"");
+        System.out.println();
         System.out.println("  # Custom thresholds with export");
         System.out.println("  java -jar cullergrader.jar -i /photos -o /export -t 10 -s 40");
         System.out.println();
@@ -4,6 +4,7 @@ import com.penguinpush.cullergrader.logic.*;
 import com.penguinpush.cullergrader.ui.GroupGridFrame;
 import com.penguinpush.cullergrader.config.AppConstants;
 import com.penguinpush.cullergrader.config.ExecutionMode;
+import com.penguinpush.cullergrader.media.HeapPressureMonitor;
 import com.penguinpush.cullergrader.media.PhotoUtils;
 import javax.swing.SwingUtilities;
 import com.formdev.flatlaf.FlatIntelliJLaf;
@@ -30,6 +31,10 @@ public class Main {
             GroupingEngine groupingEngine = new GroupingEngine(ExecutionMode.GUI);
             ImageLoader imageLoader = new ImageLoader();
 
+            // Near the heap limit, drop cached images and hold back prefetching rather than run out of memory
+            HeapPressureMonitor.addListener(imageLoader::setPrefetchPaused);
+            HeapPressureMonitor.start();
+
             SwingUtilities.invokeLater(() -> new GroupGridFrame(imageLoader, groupingEngine));
             GroupGridFrame.initializeLoggerCallback();
         }
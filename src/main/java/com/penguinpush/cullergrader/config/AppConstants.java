@@ -37,7 +37,15 @@ public class AppConstants {
     public static final float TIME_THRESHOLD_SECONDS = config.TIME_THRESHOLD_SECONDS;
     public static final float SIMILARITY_THRESHOLD_PERCENT = config.SIMILARITY_THRESHOLD_PERCENT;
     public static final String SELECTION_STRATEGY = config.SELECTION_STRATEGY;
+    public static final int MEMORY_BUDGET_MB = config.MEMORY_BUDGET_MB;
+    public static final int HEAP_PRESSURE_PERCENT = config.HEAP_PRESSURE_PERCENT;
+    public static final int HEAP_PRESSURE_SHED_PERCENT = config.HEAP_PRESSURE_SHED_PERCENT;
     public static final int IMAGE_PREVIEW_CACHE_SIZE_MB = config.IMAGE_PREVIEW_CACHE_SIZE_MB;
+    public static final String PREVIEW_CACHE_STORAGE = config.PREVIEW_CACHE_STORAGE;
+    public static final int PREVIEW_DECODED_POOL_SIZE = config.PREVIEW_DECODED_POOL_SIZE;
+    public static final boolean PREVIEW_DISK_CACHE_ENABLED = config.PREVIEW_DISK_CACHE_ENABLED;
+    public static final String PREVIEW_CACHE_FILE = config.PREVIEW_CACHE_FILE;
+    public static final int PREVIEW_CACHE_MAX_MB = config.PREVIEW_CACHE_MAX_MB;
 
     public static final int MAX_PRIORITY = config.MAX_PRIORITY;
     public static final int IMAGE_PRIORITY = config.IMAGE_PRIORITY;
@@ -60,6 +68,8 @@ public class AppConstants {
     public static final String PLACEHOLDER_THUMBNAIL_PATH = config.PLACEHOLDER_THUMBNAIL_PATH;
     public static final int PHOTO_CACHE_WINDOW_SIZE = config.PHOTO_CACHE_WINDOW_SIZE;
     public static final int PHOTO_LRU_CACHE_SIZE = config.PHOTO_LRU_CACHE_SIZE;
+    public static final int ZOOM_TILE_SIZE = config.ZOOM_TILE_SIZE;
+    public static final int ZOOM_TILE_CACHE_SIZE = config.ZOOM_TILE_CACHE_SIZE;
 
     public static final float GRIDMEDIA_LABEL_FONT_SIZE = config.GRIDMEDIA_LABEL_FONT_SIZE;
     public static final int GRIDMEDIA_LABEL_HEIGHT = config.GRIDMEDIA_LABEL_HEIGHT;
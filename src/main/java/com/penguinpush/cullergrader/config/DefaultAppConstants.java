@@ -15,7 +15,15 @@ public class DefaultAppConstants {
     public float TIME_THRESHOLD_SECONDS = 15;
     public float SIMILARITY_THRESHOLD_PERCENT = 45;
     public String SELECTION_STRATEGY = "first";
+    public int MEMORY_BUDGET_MB = 0;  // 0 = three quarters of the maximum heap
+    public int HEAP_PRESSURE_PERCENT = 85;  // 0 turns heap pressure monitoring off
+    public int HEAP_PRESSURE_SHED_PERCENT = 50;
     public int IMAGE_PREVIEW_CACHE_SIZE_MB = 2048;  // Default 2048 MB (2 GB)
+    public String PREVIEW_CACHE_STORAGE = "heap";  // "heap", "compressed" or "offheap"
+    public int PREVIEW_DECODED_POOL_SIZE = 256;
+    public boolean PREVIEW_DISK_CACHE_ENABLED = true;
+    public String PREVIEW_CACHE_FILE = "previews.bin";
+    public int PREVIEW_CACHE_MAX_MB = 1024;  // 0 = no limit
 
     public int MAX_PRIORITY = 0;
     public int IMAGE_PRIORITY = 1;
@@ -38,6 +46,8 @@ public class DefaultAppConstants {
     public String PLACEHOLDER_THUMBNAIL_PATH = "placeholder.jpg";
     public int PHOTO_CACHE_WINDOW_SIZE = 2;
     public int PHOTO_LRU_CACHE_SIZE = 5;
+    public int ZOOM_TILE_SIZE = 512;
+    public int ZOOM_TILE_CACHE_SIZE = 64;
 
     public float GRIDMEDIA_LABEL_FONT_SIZE = 14f;
     public int GRIDMEDIA_LABEL_HEIGHT = 20;
@@ -12,4 +12,23 @@ public abstract class ASTNode {
      * @throws ExpressionException if evaluation fails
      */
     public abstract Object evaluate(EvaluationContext context) throws ExpressionException;
+
+    /**
+     * Checks whether this subtree reads the given variable.
+     * Lets callers skip computing expensive variables (e.g. minDistanceToSelected) that a strategy never uses.
+     * @param variable The variable token type
+     * @return true if any node in this subtree references the variable
+     */
+    public boolean references(TokenType variable) {
+        return false;
+    }
+
+    /**
+     * Builds a profiled copy of this subtree, with every node wrapped in a ProfiledNode.
+     * The original tree is left untouched, so the uninstrumented path pays nothing for profiling.
+     * @return The root of the instrumented copy
+     */
+    ProfiledNode instrument() {
+        return new ProfiledNode(this, false);
+    }
 }
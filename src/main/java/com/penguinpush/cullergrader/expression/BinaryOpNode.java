@@ -156,6 +156,23 @@ public class BinaryOpNode extends ASTNode {
         return false;
     }
 
+    public TokenType getOperator() {
+        return operator;
+    }
+
+    @Override
+    ProfiledNode instrument() {
+        ProfiledNode profiledLeft = left.instrument();
+        ProfiledNode profiledRight = right.instrument();
+        boolean shortCircuiting = operator == TokenType.AND || operator == TokenType.OR;
+        return new ProfiledNode(new BinaryOpNode(operator, profiledLeft, profiledRight), shortCircuiting, profiledLeft, profiledRight);
+    }
+
+    @Override
+    public boolean references(TokenType variable) {
+        return left.references(variable) || right.references(variable);
+    }
+
     @Override
     public String toString() {
         return "Binary(" + left + " " + operator + " " + right + ")";
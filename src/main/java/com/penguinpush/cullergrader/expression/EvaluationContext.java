@@ -5,12 +5,12 @@ package com.penguinpush.cullergrader.expression;
  * These variables are populated from photo and group metadata.
  */
 public class EvaluationContext {
-    private final int index;          // 0-based photo position in group
+    private int index;          // 0-based photo position in group
     private final int length;         // Total photos in group
-    private final float deltaTime;    // Seconds since previous photo
-    private final float similarity;   // Similarity % to previous photo
+    private float deltaTime;    // Seconds since previous photo
+    private float similarity;   // Similarity % to previous photo
     private final float maxGroupSimilarity;  // Max similarity in the group
-    private final float minDistanceToSelected;  // Min distance % to selected photos
+    private float minDistanceToSelected;  // Min distance % to selected photos
 
     public EvaluationContext(int index, int length, float deltaTime, float similarity,
                              float maxGroupSimilarity, float minDistanceToSelected) {
@@ -22,6 +22,17 @@ public class EvaluationContext {
         this.minDistanceToSelected = minDistanceToSelected;
     }
 
+    /**
+     * Moves this context to another photo of the same group.
+     * Used by batch evaluation to reuse a single context for every row instead of allocating one per photo.
+     */
+    void setRow(int index, float deltaTime, float similarity, float minDistanceToSelected) {
+        this.index = index;
+        this.deltaTime = deltaTime;
+        this.similarity = similarity;
+        this.minDistanceToSelected = minDistanceToSelected;
+    }
+
     public int getIndex() {
         return index;
     }
@@ -0,0 +1,96 @@
+package com.penguinpush.cullergrader.expression;
+
+import com.penguinpush.cullergrader.media.Photo;
+import com.penguinpush.cullergrader.media.PhotoGroup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Opt-in "explain" mode for selection strategies.
+ * Holds an instrumented copy of the compiled strategy (per-node counts, short-circuits, timing)
+ * plus the variable values and outcome of every photo it was evaluated for.
+ */
+public class EvaluationProfile {
+    private ProfiledNode root;
+    private final Map<Photo, Map<String, Object>> photoTraces = new LinkedHashMap<>();
+    private long rows = 0;
+    private long selectedRows = 0;
+
+    /**
+     * Instruments a compiled strategy. Evaluating the returned tree records into this profile.
+     * Instrumenting again starts a fresh profile.
+     *
+     * @param ast The compiled expression AST
+     * @return The instrumented AST, to be used in place of the original
+     */
+    public ASTNode instrument(ASTNode ast) {
+        root = ast.instrument();
+        photoTraces.clear();
+        rows = 0;
+        selectedRows = 0;
+        return root;
+    }
+
+    /**
+     * Records the variable values one row was evaluated with, and its result.
+     */
+    void recordRow(GroupMetrics metrics, int row, EvaluationContext context, boolean selected, String error) {
+        rows++;
+        if (selected) {
+            selectedRows++;
+        }
+
+        PhotoGroup group = metrics.getGroup();
+        if (group == null) {
+            return;  // Raw columns without photos, nothing to attach the trace to
+        }
+
+        Map<String, Object> trace = new LinkedHashMap<>();
+        trace.put("index", context.getIndex());
+        trace.put("length", context.getLength());
+        trace.put("deltaTime", context.getDeltaTime());
+        trace.put("similarity", context.getSimilarity());
+        trace.put("maxGroupSimilarity", context.getMaxGroupSimilarity());
+        trace.put("minDistanceToSelected", context.getMinDistanceToSelected());
+        trace.put("selected", selected);
+        if (error != null) {
+            trace.put("error", error);
+        }
+        photoTraces.put(group.getPhotos().get(row), trace);
+    }
+
+    /**
+     * Returns the recorded variable values for a photo, or null if it was never evaluated.
+     */
+    public Map<String, Object> getPhotoTrace(Photo photo) {
+        return photoTraces.get(photo);
+    }
+
+    /**
+     * Builds the per-node report for JSON export.
+     */
+    public Map<String, Object> toReport() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("photosEvaluated", rows);
+        report.put("photosSelected", selectedRows);
+        if (root != null) {
+            report.put("totalTimeNanos", root.getTimeNanos());
+            report.put("tree", root.toReport());
+        }
+        return report;
+    }
+
+    /**
+     * Formats a human-readable summary, one line per node.
+     */
+    public String formatSummary() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Photos evaluated: ").append(rows).append(", selected: ").append(selectedRows);
+        builder.append(System.lineSeparator());
+        if (root != null) {
+            root.appendSummary(builder, 0);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,113 @@
+package com.penguinpush.cullergrader.expression;
+
+import com.penguinpush.cullergrader.logic.HashUtils;
+import com.penguinpush.cullergrader.media.Photo;
+import com.penguinpush.cullergrader.media.PhotoGroup;
+
+import java.util.List;
+
+/**
+ * Column-oriented view of a group's per-photo metrics.
+ * Each array holds one variable for every photo in group order, so a compiled strategy
+ * can be evaluated over the whole group in a tight loop without touching Photo objects.
+ */
+public class GroupMetrics {
+    private final int length;
+    private final float maxGroupSimilarity;
+    private final int[] index;
+    private final float[] deltaTime;
+    private final float[] similarity;
+    private final long[][] packedHashes;  // null entries for photos without a hash
+    private final int[] hashLengths;      // original hash string lengths, for length mismatch checks
+    private final PhotoGroup group;       // source group, null when built from raw columns
+
+    public GroupMetrics(int[] index, float[] deltaTime, float[] similarity, String[] hashes, float maxGroupSimilarity) {
+        this(index, deltaTime, similarity, hashes, maxGroupSimilarity, null);
+    }
+
+    private GroupMetrics(int[] index, float[] deltaTime, float[] similarity, String[] hashes, float maxGroupSimilarity, PhotoGroup group) {
+        this.group = group;
+        this.length = index.length;
+        this.maxGroupSimilarity = maxGroupSimilarity;
+        this.index = index;
+        this.deltaTime = deltaTime;
+        this.similarity = similarity;
+        this.packedHashes = new long[length][];
+        this.hashLengths = new int[length];
+
+        for (int i = 0; i < length; i++) {
+            if (hashes[i] != null) {
+                packedHashes[i] = HashUtils.packHash(hashes[i]);
+                hashLengths[i] = hashes[i].length();
+            }
+        }
+    }
+
+    /**
+     * Builds the columns for a group from its photos' metrics.
+     *
+     * @param group The group to snapshot
+     * @return The group's metrics as primitive columns
+     */
+    public static GroupMetrics fromGroup(PhotoGroup group) {
+        List<Photo> photos = group.getPhotos();
+        int size = photos.size();
+
+        int[] index = new int[size];
+        float[] deltaTime = new float[size];
+        float[] similarity = new float[size];
+        String[] hashes = new String[size];
+
+        for (int i = 0; i < size; i++) {
+            Photo photo = photos.get(i);
+            index[i] = photo.getIndex();
+            deltaTime[i] = photo.getDeltaTimeRatio();
+            similarity[i] = photo.getHammingDistanceRatio();
+            hashes[i] = photo.getHash();
+        }
+
+        return new GroupMetrics(index, deltaTime, similarity, hashes, group.getMaxGroupSimilarity(), group);
+    }
+
+    /**
+     * Returns the group these columns were taken from, or null if built from raw columns.
+     */
+    public PhotoGroup getGroup() {
+        return group;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public float getMaxGroupSimilarity() {
+        return maxGroupSimilarity;
+    }
+
+    public int getIndex(int row) {
+        return index[row];
+    }
+
+    public float getDeltaTime(int row) {
+        return deltaTime[row];
+    }
+
+    public float getSimilarity(int row) {
+        return similarity[row];
+    }
+
+    /**
+     * Hamming distance between the hashes of two rows.
+     * Mirrors HashUtils.hammingDistance(String, String): mismatched lengths are as distant as possible.
+     *
+     * @param row The first row
+     * @param other The second row
+     * @return The number of differing hash bits, or Integer.MAX_VALUE if the hashes can't be compared
+     */
+    public int hammingDistance(int row, int other) {
+        if (packedHashes[row] == null || packedHashes[other] == null || hashLengths[row] != hashLengths[other]) {
+            return Integer.MAX_VALUE;
+        }
+        return HashUtils.hammingDistance(packedHashes[row], packedHashes[other]);
+    }
+}
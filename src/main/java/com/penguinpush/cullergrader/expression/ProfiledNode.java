@@ -0,0 +1,138 @@
+package com.penguinpush.cullergrader.expression;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AST node that wraps another node and records how often it was evaluated, what it returned,
+ * and how long it took (inclusive of its children).
+ * Built by ASTNode.instrument(); not thread-safe, each instrumented tree belongs to one evaluation loop.
+ */
+public class ProfiledNode extends ASTNode {
+    private final ASTNode delegate;
+    private final ProfiledNode[] children;
+    private final boolean shortCircuiting;  // AND/OR: the right child is skipped when the left decides
+
+    private long evaluations = 0;
+    private long trueCount = 0;
+    private long errors = 0;
+    private long shortCircuits = 0;
+    private long timeNanos = 0;
+
+    ProfiledNode(ASTNode delegate, boolean shortCircuiting, ProfiledNode... children) {
+        this.delegate = delegate;
+        this.shortCircuiting = shortCircuiting;
+        this.children = children;
+    }
+
+    @Override
+    public Object evaluate(EvaluationContext context) throws ExpressionException {
+        evaluations++;
+        long start = System.nanoTime();
+        long rightEvaluations = shortCircuiting ? children[1].evaluations : 0;
+        try {
+            Object result = delegate.evaluate(context);
+            // Only a result decided by the left operand alone counts; an error that skipped the right one doesn't
+            if (shortCircuiting && children[1].evaluations == rightEvaluations) {
+                shortCircuits++;
+            }
+            if (Boolean.TRUE.equals(result)) {
+                trueCount++;
+            }
+            return result;
+        } catch (ExpressionException e) {
+            errors++;
+            throw e;
+        } finally {
+            timeNanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public boolean references(TokenType variable) {
+        return delegate.references(variable);
+    }
+
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    public long getTimeNanos() {
+        return timeNanos;
+    }
+
+    /**
+     * Number of evaluations where the left operand decided the result and the right one was skipped,
+     * or 0 for nodes that never short-circuit.
+     */
+    public long getShortCircuits() {
+        return shortCircuits;
+    }
+
+    /**
+     * Builds a nested report of this node and its children, suitable for JSON export.
+     */
+    public Map<String, Object> toReport() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("node", delegate.toString());
+        report.put("evaluations", evaluations);
+        report.put("trueCount", trueCount);
+        report.put("errors", errors);
+        report.put("timeNanos", timeNanos);
+        if (shortCircuiting) {
+            long shortCircuits = getShortCircuits();
+            report.put("shortCircuits", shortCircuits);
+            report.put("shortCircuitRate", evaluations == 0 ? 0.0 : (double) shortCircuits / evaluations);
+        }
+
+        if (children.length > 0) {
+            List<Map<String, Object>> childReports = new ArrayList<>();
+            for (ProfiledNode child : children) {
+                childReports.add(child.toReport());
+            }
+            report.put("children", childReports);
+        }
+        return report;
+    }
+
+    /**
+     * Appends a one-line-per-node indented summary of this subtree.
+     */
+    void appendSummary(StringBuilder builder, int depth) {
+        for (int i = 0; i < depth; i++) {
+            builder.append("  ");
+        }
+        builder.append(children.length == 0 ? delegate.toString() : describeOperator());
+        builder.append(String.format(" - evals: %d, true: %d, time: %.3f ms", evaluations, trueCount, timeNanos / 1_000_000.0));
+        if (shortCircuiting) {
+            double rate = evaluations == 0 ? 0.0 : 100.0 * getShortCircuits() / evaluations;
+            builder.append(String.format(", short-circuited: %.1f%%", rate));
+        }
+        builder.append(System.lineSeparator());
+
+        for (ProfiledNode child : children) {
+            child.appendSummary(builder, depth + 1);
+        }
+    }
+
+    private String describeOperator() {
+        // Children are printed on their own lines, so only show the node type and operator here
+        String description = delegate.toString();
+        int paren = description.indexOf('(');
+        String type = paren > 0 ? description.substring(0, paren) : description;
+        if (delegate instanceof BinaryOpNode) {
+            return type + " " + ((BinaryOpNode) delegate).getOperator();
+        }
+        if (delegate instanceof UnaryOpNode) {
+            return type + " " + ((UnaryOpNode) delegate).getOperator();
+        }
+        return type;
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+}
@@ -5,6 +5,8 @@ import com.penguinpush.cullergrader.logic.HashUtils;
 import com.penguinpush.cullergrader.media.Photo;
 import com.penguinpush.cullergrader.media.PhotoGroup;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -31,6 +33,23 @@ public class SelectionStrategyManager {
     // Cache of compiled expressions (key: expression string, value: AST)
     private final Map<String, ASTNode> compiledExpressions = new HashMap<String, ASTNode>();
 
+    // Explain mode: records per-photo variables during batch evaluation (null when disabled)
+    private EvaluationProfile profile;
+
+    /**
+     * Enables explain mode. Batch evaluation will record each photo's variables and result into the profile.
+     * Pass an AST instrumented with the same profile to also collect per-node statistics.
+     *
+     * @param profile The profile to record into, or null to disable
+     */
+    public void setProfile(EvaluationProfile profile) {
+        this.profile = profile;
+    }
+
+    public EvaluationProfile getProfile() {
+        return profile;
+    }
+
     /**
      * Compiles an expression string (or resolves an alias) to an AST.
      * Results are cached for performance.
@@ -81,9 +100,8 @@ public class SelectionStrategyManager {
             int length = group.getSize();
 
             // Get deltaTime and similarity from metrics
-            List<Float> metrics = photo.getMetrics();
-            float deltaTime = metrics.size() > 0 ? metrics.get(0) : 0.0f;
-            float similarity = metrics.size() > 1 ? metrics.get(1) : 0.0f;
+            float deltaTime = photo.getDeltaTimeRatio();
+            float similarity = photo.getHammingDistanceRatio();
             float maxGroupSimilarity = group.getMaxGroupSimilarity();
 
             // Calculate minDistanceToSelected
@@ -103,6 +121,65 @@ public class SelectionStrategyManager {
         }
     }
 
+    /**
+     * Evaluates a compiled expression for every photo of a group in one pass.
+     * Reuses a single context across rows, so no per-photo allocation happens in the loop.
+     *
+     * Rows are evaluated strictly in index order: minDistanceToSelected for row i depends on the
+     * selection bits of rows 0..i-1, so the loop can't be reordered or split across threads.
+     * After each selection, the new photo's distance is folded into the running minimum of every
+     * later row (only when the expression actually reads minDistanceToSelected).
+     *
+     * @param ast The compiled expression AST
+     * @param metrics The group's metrics as columns
+     * @return Selection bitmap, bit i set if row i should be selected
+     */
+    public BitSet evaluateGroup(ASTNode ast, GroupMetrics metrics) {
+        int length = metrics.getLength();
+        BitSet selection = new BitSet(length);
+        boolean tracksDistance = ast.references(TokenType.MIN_DISTANCE_TO_SELECTED);
+        int hashLength = AppConstants.HASHED_WIDTH * AppConstants.HASHED_HEIGHT * 3;
+
+        // Running minimum distance to the selected rows, 100 while nothing is selected
+        float[] minDistanceToSelected = new float[length];
+        Arrays.fill(minDistanceToSelected, 100.0f);
+
+        EvaluationContext context = new EvaluationContext(0, length, 0.0f, 0.0f, metrics.getMaxGroupSimilarity(), 100.0f);
+        ExpressionEvaluator evaluator = new ExpressionEvaluator();
+
+        for (int row = 0; row < length; row++) {
+            context.setRow(metrics.getIndex(row), metrics.getDeltaTime(row), metrics.getSimilarity(row), minDistanceToSelected[row]);
+
+            boolean selected;
+            String error = null;
+            try {
+                selected = evaluator.evaluateBoolean(ast, context);
+            } catch (ExpressionException e) {
+                logMessage("Evaluation error for photo at index " + metrics.getIndex(row) + ": " + e.getMessage());
+                selected = false;  // Don't select on error
+                error = e.getMessage();
+            }
+
+            if (profile != null) {
+                profile.recordRow(metrics, row, context, selected, error);
+            }
+
+            if (!selected) {
+                continue;
+            }
+            selection.set(row);
+
+            if (tracksDistance) {
+                for (int later = row + 1; later < length; later++) {
+                    float distancePercent = 100.0f * metrics.hammingDistance(row, later) / hashLength;
+                    minDistanceToSelected[later] = Math.min(minDistanceToSelected[later], distancePercent);
+                }
+            }
+        }
+
+        return selection;
+    }
+
     /**
      * Computes the minimum Hamming distance (as percentage) from a photo to all selected photos.
      * Returns 100.0 (maximum distance) if no photos are selected yet.
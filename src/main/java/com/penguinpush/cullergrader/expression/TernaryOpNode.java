@@ -29,6 +29,20 @@ public class TernaryOpNode extends ASTNode {
         }
     }
 
+    @Override
+    ProfiledNode instrument() {
+        ProfiledNode profiledCondition = condition.instrument();
+        ProfiledNode profiledTrue = trueValue.instrument();
+        ProfiledNode profiledFalse = falseValue.instrument();
+        return new ProfiledNode(new TernaryOpNode(profiledCondition, profiledTrue, profiledFalse), false,
+                profiledCondition, profiledTrue, profiledFalse);
+    }
+
+    @Override
+    public boolean references(TokenType variable) {
+        return condition.references(variable) || trueValue.references(variable) || falseValue.references(variable);
+    }
+
     @Override
     public String toString() {
         return "Ternary(" + condition + " ? " + trueValue + " : " + falseValue + ")";
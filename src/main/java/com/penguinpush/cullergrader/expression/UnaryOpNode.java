@@ -26,6 +26,21 @@ public class UnaryOpNode extends ASTNode {
         throw new ExpressionException("Unknown unary operator: " + operator);
     }
 
+    public TokenType getOperator() {
+        return operator;
+    }
+
+    @Override
+    ProfiledNode instrument() {
+        ProfiledNode profiledOperand = operand.instrument();
+        return new ProfiledNode(new UnaryOpNode(operator, profiledOperand), false, profiledOperand);
+    }
+
+    @Override
+    public boolean references(TokenType variable) {
+        return operand.references(variable);
+    }
+
     @Override
     public String toString() {
         return "Unary(" + operator + " " + operand + ")";
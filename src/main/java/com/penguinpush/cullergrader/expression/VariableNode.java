@@ -30,6 +30,11 @@ public class VariableNode extends ASTNode {
         }
     }
 
+    @Override
+    public boolean references(TokenType variable) {
+        return this.variable == variable;
+    }
+
     @Override
     public String toString() {
         return "Variable(" + variable + ")";
@@ -7,13 +7,16 @@ import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.penguinpush.cullergrader.config.AppConstants;
+import com.penguinpush.cullergrader.expression.EvaluationProfile;
 import com.penguinpush.cullergrader.media.Photo;
 import com.penguinpush.cullergrader.media.PhotoGroup;
 import static com.penguinpush.cullergrader.utils.Logger.logMessage;
@@ -26,6 +29,33 @@ public class FileUtils {
         return groupingEngine.generateGroups(photos, timestampThreshold, similarityThreshold);
     }
 
+    /**
+     * Loads a folder, handing each group to onGroup as soon as it's complete, in order and on a hashing thread,
+     * so groups can be shown while the rest of the folder is still being hashed.
+     *
+     * @param progress Updated while loading; if it's cancelled, the photos hashed so far are still grouped
+     */
+    public static List<PhotoGroup> loadFolder(File path, GroupingEngine groupingEngine, float timestampThreshold, float similarityThreshold,
+                                              LoadProgress progress, Consumer<PhotoGroup> onGroup) {
+        GroupingEngine.GroupBuilder builder = groupingEngine.newGroupBuilder(timestampThreshold, similarityThreshold);
+        List<PhotoGroup> groups = new ArrayList<>();
+
+        groupingEngine.photoListFromFolder(path, progress, photos -> {
+            for (Photo photo : photos) {
+                for (PhotoGroup group : builder.add(photo)) {
+                    groups.add(group);
+                    onGroup.accept(group);
+                }
+            }
+        });
+        for (PhotoGroup group : builder.finish()) {
+            groups.add(group);
+            onGroup.accept(group);
+        }
+
+        return groups;
+    }
+
     public static void exportBestTakes(List<PhotoGroup> photoGroups, File targetFolder) {
         if (!targetFolder.exists()) {
             targetFolder.mkdirs();
@@ -125,6 +155,16 @@ public class FileUtils {
 
     public static void exportGroupsJson(List<PhotoGroup> photoGroups, File jsonFile,
                                          float timeThreshold, float similarityThreshold) {
+        exportGroupsJson(photoGroups, jsonFile, timeThreshold, similarityThreshold, null);
+    }
+
+    /**
+     * Exports group information to JSON, optionally including the selection strategy profile.
+     * With a profile, the root gets a "strategyProfile" section and each photo its "strategyVariables".
+     */
+    public static void exportGroupsJson(List<PhotoGroup> photoGroups, File jsonFile,
+                                         float timeThreshold, float similarityThreshold,
+                                         EvaluationProfile strategyProfile) {
         // Create parent directories if needed
         File parentDir = jsonFile.getParentFile();
         if (parentDir != null && !parentDir.exists()) {
@@ -157,6 +197,9 @@ public class FileUtils {
         root.put("totalPhotos", photoGroups.stream().mapToInt(PhotoGroup::getSize).sum());
         root.put("selectedPhotos", photoGroups.stream().mapToInt(g -> g.getSelectedTakes().size()).sum());
         root.put("exportTimestamp", System.currentTimeMillis());
+        if (strategyProfile != null) {
+            root.put("strategyProfile", strategyProfile.toReport());
+        }
 
         List<Map<String, Object>> groupsList = new ArrayList<>();
         for (PhotoGroup group : photoGroups) {
@@ -187,6 +230,13 @@ public class FileUtils {
                     photoMap.put("similarityPercent", metrics.get(1));
                 }
 
+                if (strategyProfile != null) {
+                    Map<String, Object> trace = strategyProfile.getPhotoTrace(photo);
+                    if (trace != null) {
+                        photoMap.put("strategyVariables", trace);
+                    }
+                }
+
                 photosList.add(photoMap);
             }
             groupMap.put("photos", photosList);
@@ -206,4 +256,31 @@ public class FileUtils {
             throw new RuntimeException("Failed to export JSON", e);
         }
     }
+
+    public static void exportSweepJson(StrategySweep sweep, List<PhotoGroup> photoGroups, File jsonFile,
+                                       float timeThreshold, float similarityThreshold) {
+        File parentDir = jsonFile.getParentFile();
+        if (parentDir != null && !parentDir.exists()) {
+            parentDir.mkdirs();
+        }
+
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("version", AppConstants.VERSION);
+        root.put("timeThresholdSeconds", timeThreshold);
+        root.put("similarityThresholdPercent", similarityThreshold);
+        root.put("totalGroups", photoGroups.size());
+        root.put("totalPhotos", photoGroups.stream().mapToInt(PhotoGroup::getSize).sum());
+        root.put("exportTimestamp", System.currentTimeMillis());
+        root.putAll(sweep.toReport());
+
+        try (FileWriter writer = new FileWriter(jsonFile)) {
+            // Keep expressions readable (no \u003d for '=')
+            Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+            gson.toJson(root, writer);
+            logMessage("Exported strategy sweep to: " + jsonFile.getAbsolutePath());
+        } catch (IOException e) {
+            logMessage("Failed to export strategy sweep: " + e.getMessage());
+            throw new RuntimeException("Failed to export strategy sweep", e);
+        }
+    }
 }
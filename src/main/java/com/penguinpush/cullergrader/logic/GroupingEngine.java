@@ -9,6 +9,7 @@ import static com.penguinpush.cullergrader.utils.Logger.logMessage;
 import javax.swing.*;
 
 import java.util.*;
+import java.util.function.Consumer;
 import java.io.File;
 
 public class GroupingEngine {
@@ -20,18 +21,37 @@ public class GroupingEngine {
         this.mode = mode;
     }
 
+    /**
+     * Enables explain mode for the selection strategy: the next generateGroups() call evaluates an
+     * instrumented copy of the strategy and records per-node and per-photo details into the profile.
+     *
+     * @param profile The profile to record into, or null to disable
+     */
+    public void setStrategyProfile(com.penguinpush.cullergrader.expression.EvaluationProfile profile) {
+        strategyManager.setProfile(profile);
+    }
+
     public List<Photo> photoListFromFolder(File folder) {
+        return photoListFromFolder(folder, new LoadProgress(), null);
+    }
+
+    /**
+     * Hashes the photos in a folder, sorted by timestamp and then file name.
+     *
+     * @param onHashed Called with photos as they are hashed, in the same order; see HashManager.hashAllPhotos
+     */
+    public List<Photo> photoListFromFolder(File folder, LoadProgress progress, Consumer<List<Photo>> onHashed) {
         File[] imageFiles = folder.listFiles((f) -> f.isFile() && PhotoUtils.isImageFile(f));
         if (imageFiles == null) {
             return Collections.emptyList();
         }
 
         HashManager hashManager = new HashManager(mode);
-        List<Photo> photoList = hashManager.hashAllPhotos(imageFiles);
+        List<Photo> photoList = hashManager.hashAllPhotos(imageFiles, progress, onHashed);
 
         hashManager.saveCache();
 
-        // sort first by timestamp, and then by file name
+        // sort first by timestamp, and then by file name (already in this order, kept for callers relying on it)
         photoList.sort(Comparator
                 .comparingLong(Photo::getTimestamp)
                 .thenComparing(photo -> photo.getFile().getName()));
@@ -40,16 +60,20 @@ public class GroupingEngine {
     }
 
     public List<PhotoGroup> generateGroups(List<Photo> photoList, float timestampThreshold, float similarityThreshold) {
-        // Filter out photos with null hashes (RAW files without previews, corrupted files, etc.)
-        List<Photo> validPhotos = new ArrayList<>();
+        GroupBuilder builder = newGroupBuilder(timestampThreshold, similarityThreshold);
+        List<PhotoGroup> groups = new ArrayList<>();
         for (Photo photo : photoList) {
-            if (photo.getHash() != null) {
-                validPhotos.add(photo);
-            } else {
-                logMessage("Skipping photo with null hash: " + photo.getFile().getName());
-            }
+            groups.addAll(builder.add(photo));
         }
+        groups.addAll(builder.finish());
+        return groups;
+    }
 
+    /**
+     * Starts grouping photos that arrive one at a time, in timestamp order, such as while a folder is still
+     * being hashed. Compiles the selection strategy once for all of them.
+     */
+    public GroupBuilder newGroupBuilder(float timestampThreshold, float similarityThreshold) {
         // Compile expression once for all groups (performance optimization)
         String strategy = AppConstants.SELECTION_STRATEGY;
         com.penguinpush.cullergrader.expression.ASTNode compiledStrategy = null;
@@ -61,18 +85,53 @@ public class GroupingEngine {
             logMessage("Failed to compile selection strategy '" + strategy + "': " + e.getMessage());
         }
 
-        List<PhotoGroup> groups = new ArrayList<>();
-        PhotoGroup currentGroup = new PhotoGroup();
+        // Explain mode: evaluate an instrumented copy so the profile sees every node
+        com.penguinpush.cullergrader.expression.EvaluationProfile profile = strategyManager.getProfile();
+        if (profile != null && compiledStrategy != null) {
+            compiledStrategy = profile.instrument(compiledStrategy);
+        }
+
+        return new GroupBuilder(timestampThreshold, similarityThreshold, compiledStrategy);
+    }
+
+    /**
+     * Groups photos as they arrive. A group is complete, and returned, once a photo arrives that doesn't belong in it.
+     */
+    public class GroupBuilder {
+        private final float timestampThreshold;
+        private final float similarityThreshold;
+        private final com.penguinpush.cullergrader.expression.ASTNode compiledStrategy;
+        private int groupCount = 0;
+        private int filteredCount = 0;
+        private PhotoGroup currentGroup = new PhotoGroup();
+
+        private GroupBuilder(float timestampThreshold, float similarityThreshold,
+                             com.penguinpush.cullergrader.expression.ASTNode compiledStrategy) {
+            this.timestampThreshold = timestampThreshold;
+            this.similarityThreshold = similarityThreshold;
+            this.compiledStrategy = compiledStrategy;
+        }
 
-        for (int i = 0; i < validPhotos.size(); i++) {
-            Photo current = validPhotos.get(i);
+        /**
+         * Adds the next photo in timestamp order.
+         *
+         * @return The group this photo closed, if it started a new one; otherwise empty
+         */
+        public List<PhotoGroup> add(Photo current) {
+            // Filter out photos with null hashes (RAW files without previews, corrupted files, etc.)
+            if (current.getHash() == null) {
+                filteredCount++;
+                logMessage("Skipping photo with null hash: " + current.getFile().getName());
+                return Collections.emptyList();
+            }
 
             if (currentGroup.getSize() == 0) {
                 current.setIndex(0);
                 currentGroup.addPhoto(current);
-                continue;
+                return Collections.emptyList();
             }
 
+            List<PhotoGroup> closed = Collections.emptyList();
             Photo last = currentGroup.getPhotos().get(currentGroup.getSize() - 1);
             long deltaTime = Math.abs(current.getTimestamp() - last.getTimestamp());
             int hammingDistance = HashUtils.hammingDistance(current.getHash(), last.getHash());
@@ -85,22 +144,7 @@ public class GroupingEngine {
                 current.setIndex(last.getIndex() + 1);
                 currentGroup.addPhoto(current);
             } else {
-                currentGroup.setIndex(groups.size());
-
-                // Calculate max similarity for the group (skip first photo - it compares to previous group)
-                float maxSimilarity = 0.0f;
-                for (Photo photo : currentGroup.getPhotos()) {
-                    if (photo.getIndex() == 0) continue;  // First photo compares to different group
-                    List<Float> metrics = photo.getMetrics();
-                    if (metrics.size() > 1) {
-                        maxSimilarity = Math.max(maxSimilarity, metrics.get(1));
-                    }
-                }
-                currentGroup.setMaxGroupSimilarity(maxSimilarity);
-                System.out.println("[DEBUG] Group " + groups.size() + " maxGroupSimilarity: " + maxSimilarity + ", size: " + currentGroup.getSize());
-
-                currentGroup.applyDefaultSelectionStrategy(strategyManager, compiledStrategy);
-                groups.add(currentGroup);
+                closed = Collections.singletonList(closeGroup("Group"));
                 currentGroup = new PhotoGroup();
 
                 current.setIndex(0);
@@ -109,16 +153,31 @@ public class GroupingEngine {
 
             current.setMetrics(deltaTimeSeconds, hammingDistancePercent);
 
-            logMessage("added " + current.getFile().getName() + " " + deltaTimeSeconds + " " + hammingDistancePercent + " to group " + groups.size());
+            logMessage("added " + current.getFile().getName() + " " + deltaTimeSeconds + " " + hammingDistancePercent + " to group " + groupCount);
+            return closed;
         }
 
-        logMessage("Filtered " + (photoList.size() - validPhotos.size()) + " photos with null hashes");
+        /**
+         * Closes the last group, once there are no more photos.
+         *
+         * @return The last group, or empty if there were no photos
+         */
+        public List<PhotoGroup> finish() {
+            logMessage("Filtered " + filteredCount + " photos with null hashes");
 
-        // add the last group too
-        if (currentGroup.getSize() > 0) {
-            currentGroup.setIndex(groups.size());
+            // add the last group too
+            if (currentGroup.getSize() == 0) {
+                return Collections.emptyList();
+            }
+            PhotoGroup last = closeGroup("Final group");
+            currentGroup = new PhotoGroup();
+            return Collections.singletonList(last);
+        }
 
-            // Calculate max similarity for the final group (skip first photo - it compares to previous group)
+        private PhotoGroup closeGroup(String label) {
+            currentGroup.setIndex(groupCount);
+
+            // Calculate max similarity for the group (skip first photo - it compares to previous group)
             float maxSimilarity = 0.0f;
             for (Photo photo : currentGroup.getPhotos()) {
                 if (photo.getIndex() == 0) continue;  // First photo compares to different group
@@ -128,13 +187,12 @@ public class GroupingEngine {
                 }
             }
             currentGroup.setMaxGroupSimilarity(maxSimilarity);
-            System.out.println("[DEBUG] Final group " + groups.size() + " maxGroupSimilarity: " + maxSimilarity + ", size: " + currentGroup.getSize());
+            System.out.println("[DEBUG] " + label + " " + groupCount + " maxGroupSimilarity: " + maxSimilarity + ", size: " + currentGroup.getSize());
 
             currentGroup.applyDefaultSelectionStrategy(strategyManager, compiledStrategy);
-            groups.add(currentGroup);
+            groupCount++;
+            return currentGroup;
         }
-
-        return groups;
     }
 
 }
@@ -13,15 +13,18 @@ import java.awt.image.BufferedImage;
 import java.io.*;
 import java.lang.reflect.Type;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 
 public class HashManager {
 
     private static final File CACHE_FILE = new File(AppConstants.CACHE_FILE);
-    private final Map<String, HashEntry> cache = new HashMap<>();
+    private final Map<String, HashEntry> cache = new ConcurrentHashMap<>();  // written by the hashing threads
     private final ExecutionMode mode;
 
     public HashManager(ExecutionMode mode) {
@@ -30,56 +33,126 @@ public class HashManager {
     }
 
     public List<Photo> hashAllPhotos(File[] files) {
-        List<Photo> photoList = Collections.synchronizedList(new ArrayList<>());
+        return hashAllPhotos(files, new LoadProgress(), null);
+    }
+
+    /**
+     * Hashes photos in the order they are grouped in (timestamp, then file name), reading every timestamp first.
+     * Whenever the photos hashed so far extend the unbroken run from the start of that order, the newly added
+     * photos are passed on, so groups can be built and shown while hashing continues.
+     *
+     * @param progress Updated as files are scanned and hashed; cancelling it skips the photos not yet hashed
+     * @param onHashed Called with each newly completed run, in order, on a hashing thread; may be null
+     * @return The photos in order, up to the first one skipped by a cancel
+     */
+    public List<Photo> hashAllPhotos(File[] files, LoadProgress progress, Consumer<List<Photo>> onHashed) {
+        progress.setTotal(files.length);
 
         int availableProcessors = Runtime.getRuntime().availableProcessors();
         int maxThreads = Math.max(1, Math.min((int)(availableProcessors * AppConstants.MAX_CPU_USAGE), availableProcessors - 1));
-        ExecutorService executor = Executors.newWorkStealingPool(maxThreads);
-
-        for (File file : files) {
-            // handle the hashing by executing along multiple threads
-            executor.submit(() -> {
-                try {
-                    String hash;
-
-                    if (AppConstants.HASHING_ENABLED) {
-                        hash = getOrComputeHash(file);
-                    } else {
-                        hash = "0";
+        // first in, first out, so hashes complete roughly in the order they're grouped in
+        ExecutorService executor = Executors.newFixedThreadPool(maxThreads);
+
+        try {
+            long[] timestamps = new long[files.length];
+            List<Callable<Void>> scans = new ArrayList<>();
+            for (int i = 0; i < files.length; i++) {
+                int index = i;
+                scans.add(() -> {
+                    if (!progress.isCancelled()) {
+                        timestamps[index] = PhotoUtils.extractTimestamp(files[index]);
                     }
+                    progress.fileScanned();
+                    return null;
+                });
+            }
+            executor.invokeAll(scans, AppConstants.EXECUTOR_TIMEOUT_MINUTES, TimeUnit.MINUTES);
 
-                    long timestamp = PhotoUtils.extractTimestamp(file);
-                    Photo photo = new Photo(file, timestamp, hash, mode);
-                    photoList.add(photo);
-                } catch (Exception e) {
-                    logMessage("error processing: " + file.getName());
-                }
-            });
-        }
+            Integer[] order = new Integer[files.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator
+                    .comparingLong((Integer index) -> timestamps[index])
+                    .thenComparing(index -> files[index].getName()));
 
-        executor.shutdown();
-        try {
+            progress.hashingStarted();
+            OrderedRun run = new OrderedRun(files.length, onHashed);
+            for (int position = 0; position < order.length; position++) {
+                int slot = position;
+                File file = files[order[position]];
+                long timestamp = timestamps[order[position]];
+
+                // handle the hashing by executing along multiple threads
+                executor.submit(() -> {
+                    if (progress.isCancelled()) {
+                        run.skip(slot);
+                        return;
+                    }
+
+                    Photo photo = null;
+                    try {
+                        String hash;
+                        boolean cacheHit = false;
+
+                        if (AppConstants.HASHING_ENABLED) {
+                            hash = getCachedHash(file);
+                            cacheHit = hash != null;
+                            if (!cacheHit) {
+                                hash = computeHash(file);
+                            }
+                        } else {
+                            hash = "0";
+                        }
+
+                        photo = new Photo(file, timestamp, hash, mode);
+                        // computeHash gives null for files it can't read; grouping filters those photos out
+                        if (hash == null) {
+                            progress.photoFailed();
+                        } else {
+                            progress.photoHashed(cacheHit);
+                        }
+                    } catch (Exception e) {
+                        logMessage("error processing: " + file.getName());
+                        progress.photoFailed();
+                    }
+                    run.complete(slot, photo);
+                });
+            }
+
+            executor.shutdown();
             executor.awaitTermination(AppConstants.EXECUTOR_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+            return run.getPhotos();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             logMessage("thread interrupted: " + e.getMessage());
+            return Collections.emptyList();
+        } finally {
+            executor.shutdownNow();
+            // The full-size scratch images were only worth keeping while the shoot was being decoded
+            ImageDecoder.clearPool();
         }
-
-        return photoList;
     }
 
     public String getOrComputeHash(File file) {
-        String path = file.getAbsolutePath();
-        long lastModified = file.lastModified();
+        String hash = getCachedHash(file);
+        return hash != null ? hash : computeHash(file);
+    }
 
-        HashEntry entry = cache.get(path);
-        if (entry != null && entry.lastModified == lastModified && entry.hash.length() == AppConstants.HASHED_WIDTH * AppConstants.HASHED_HEIGHT * 3) {
-            // return the cached hash if entry not null, last modified dates line up, and hash length is unchanged
+    // The cached hash, if the file hasn't changed and the hash size is still the same
+    private String getCachedHash(File file) {
+        HashEntry entry = cache.get(file.getAbsolutePath());
+        if (entry != null && entry.lastModified == file.lastModified() && entry.hash.length() == AppConstants.HASHED_WIDTH * AppConstants.HASHED_HEIGHT * 3) {
             logMessage("file: " + file.getName() + ", retrieving hash: " + entry.hash);
             return entry.hash;
         }
+        return null;
+    }
+
+    private String computeHash(File file) {
+        String path = file.getAbsolutePath();
+        long lastModified = file.lastModified();
 
-        // else, hash the file and return
         try {
             BufferedImage image = PhotoUtils.readLowResImage(file, AppConstants.HASHED_WIDTH, AppConstants.HASHED_HEIGHT, mode);
             if (image == null) {
@@ -123,6 +196,64 @@ public class HashManager {
         logMessage("successfully saved cache!");
     }
 
+    // Collects photos by their position in grouping order and passes on each extension of the unbroken run from the start
+    private static class OrderedRun {
+        private static final byte PENDING = 0;
+        private static final byte DONE = 1;
+        private static final byte SKIPPED = 2;
+
+        private final Photo[] photos;
+        private final byte[] states;
+        private final Consumer<List<Photo>> onHashed;
+        private final List<Photo> passedOn = new ArrayList<>();
+        private int next = 0;
+        private boolean stopped = false;  // a photo was skipped, nothing after it is passed on
+
+        OrderedRun(int size, Consumer<List<Photo>> onHashed) {
+            this.photos = new Photo[size];
+            this.states = new byte[size];
+            this.onHashed = onHashed;
+        }
+
+        // photo is null if the file couldn't be processed; the run continues past it
+        synchronized void complete(int position, Photo photo) {
+            photos[position] = photo;
+            states[position] = DONE;
+            advance();
+        }
+
+        synchronized void skip(int position) {
+            states[position] = SKIPPED;
+            advance();
+        }
+
+        synchronized List<Photo> getPhotos() {
+            return new ArrayList<>(passedOn);
+        }
+
+        // Called with the lock held, so runs are passed on one at a time and in order
+        private void advance() {
+            List<Photo> added = new ArrayList<>();
+            while (!stopped && next < states.length && states[next] != PENDING) {
+                if (states[next] == SKIPPED) {
+                    stopped = true;
+                    break;
+                }
+                if (photos[next] != null) {
+                    added.add(photos[next]);
+                }
+                next++;
+            }
+
+            if (!added.isEmpty()) {
+                passedOn.addAll(added);
+                if (onHashed != null) {
+                    onHashed.accept(added);
+                }
+            }
+        }
+    }
+
     private static class HashEntry {
         long lastModified;
         String hash;
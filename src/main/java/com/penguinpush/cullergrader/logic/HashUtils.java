@@ -50,6 +50,26 @@ public class HashUtils {
         return distance;
     }
 
+    public static long[] packHash(String hash) {
+        // packs a "0"/"1" hash string into 64-bit words so distances can be taken with popcount
+        long[] words = new long[(hash.length() + 63) / 64];
+        for (int i = 0; i < hash.length(); i++) {
+            if (hash.charAt(i) == '1') {
+                words[i >>> 6] |= 1L << (i & 63);
+            }
+        }
+        return words;
+    }
+
+    public static int hammingDistance(long[] h1, long[] h2) {
+        // only valid for hashes packed from strings of the same length
+        int distance = 0;
+        for (int i = 0; i < h1.length; i++) {
+            distance += Long.bitCount(h1[i] ^ h2[i]);
+        }
+        return distance;
+    }
+
     private static float[][][] splitToChannels(BufferedImage image) {
         int width = image.getWidth();
         int height = image.getHeight();
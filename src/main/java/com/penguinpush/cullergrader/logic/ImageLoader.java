@@ -1,20 +1,52 @@
 package com.penguinpush.cullergrader.logic;
 
 import com.penguinpush.cullergrader.config.AppConstants;
+import com.penguinpush.cullergrader.media.ImageDecoder;
 import com.penguinpush.cullergrader.media.Photo;
 import com.penguinpush.cullergrader.media.PhotoUtils;
+import com.penguinpush.cullergrader.media.RawPreviews;
 
-import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.Dimension;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class ImageLoader {
-    private final PriorityBlockingQueue<ImageLoadTask> taskQueue;
+    // Indexed binary min-heap of pending tasks, ordered by (priority, arrival)
+    // Each task knows its heap slot, so priority changes are O(log n) instead of a linear scan
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private ImageLoadTask[] heap = new ImageLoadTask[64];
+    private int heapSize = 0;
+    private long nextSequence = 0;
+    private int maxRunnablePriority = Integer.MAX_VALUE;  // lowered to hold back prefetch under heap pressure
+
+    // Pending and in-flight tasks per photo, so repeated requests coalesce into a single decode
+    private final Map<Photo, ImageLoadTask> previewTasks = new HashMap<>();
+    private final Map<Photo, ImageLoadTask> fullTasks = new HashMap<>();
+    private final Map<TileKey, ImageLoadTask> tileTasks = new HashMap<>();
+
     private final ExecutorService executor;
 
     public ImageLoader() {
-        taskQueue = new PriorityBlockingQueue<>();
         int availableProcessors = Runtime.getRuntime().availableProcessors();
         int maxThreads = Math.max(1, Math.min((int)(availableProcessors * AppConstants.MAX_CPU_USAGE), availableProcessors - 1));
         executor = Executors.newWorkStealingPool(maxThreads);
@@ -24,54 +56,437 @@ public class ImageLoader {
         }
     }
 
-    public void loadImage(Photo photo, int priority, boolean fullImage, ImageLoadCallback callback) {
-        taskQueue.add(new ImageLoadTask(photo, priority, fullImage, callback));
+    public LoadHandle loadImage(Photo photo, int priority, boolean fullImage, ImageLoadCallback callback) {
+        return loadImage(photo, priority, fullImage, null, callback);
+    }
+
+    /**
+     * Queues a load whose lifetime is tied to a generation: cancelling the generation cancels this request.
+     * Requests made against an already-cancelled generation are dropped immediately.
+     * Full images are decoded at native resolution.
+     *
+     * @return A handle that can cancel this request on its own
+     */
+    public LoadHandle loadImage(Photo photo, int priority, boolean fullImage, LoadGeneration generation, ImageLoadCallback callback) {
+        return enqueue(photo, priority, fullImage, 0, 0, generation, callback);
+    }
+
+    /**
+     * Queues a full-image load decoded only as large as needed to fill the given box.
+     * The reader subsamples while decoding, so a 45MP file shown on a 2560x1440 panel never exists at full size.
+     *
+     * @param targetSize The box in physical pixels, or null for native resolution
+     * @return A handle that can cancel this request on its own
+     */
+    public LoadHandle loadFullImage(Photo photo, int priority, Dimension targetSize, LoadGeneration generation, ImageLoadCallback callback) {
+        if (targetSize == null) {
+            return enqueue(photo, priority, true, 0, 0, generation, callback);
+        }
+        return enqueue(photo, priority, true, Math.max(1, targetSize.width), Math.max(1, targetSize.height), generation, callback);
+    }
+
+    private LoadHandle enqueue(Photo photo, int priority, boolean fullImage, int targetWidth, int targetHeight, LoadGeneration generation, ImageLoadCallback callback) {
+        lock.lock();
+        try {
+            if (generation != null && generation.cancelled) {
+                return new LoadHandle(null, callback, null);
+            }
+
+            Map<Photo, ImageLoadTask> tasks = tasksFor(fullImage);
+            ImageLoadTask task = tasks.get(photo);
+
+            if (task == null || task.cancelled || (!task.isQueued() && !task.covers(targetWidth, targetHeight))) {
+                // a cancelled task may still be finishing its decode, and a running one may be decoding too small:
+                // start over rather than reuse it
+                task = new ImageLoadTask(photo, priority, fullImage, nextSequence++);
+                task.targetWidth = targetWidth;
+                task.targetHeight = targetHeight;
+                tasks.put(photo, task);
+                offer(task);
+                notEmpty.signal();
+            } else if (task.isQueued()) {
+                // Not started yet: decode large enough for every caller, at the highest priority asked for
+                task.widenTo(targetWidth, targetHeight);
+                if (priority < task.priority) {
+                    task.priority = priority;
+                    siftUp(task.heapIndex);
+                    notEmpty.signal();
+                }
+            }
+            // else: decoding at a size that covers this request, the result fans out to this callback too
+
+            LoadHandle handle = new LoadHandle(task, callback, generation);
+            task.handles.add(handle);
+            if (generation != null) {
+                generation.handles.add(handle);
+            }
+            return handle;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a decode of one region of a photo at native resolution, for the zoomed viewer.
+     * The tile is returned as stored in the file, without EXIF rotation; the caller orients it when drawing.
+     *
+     * @param region The region in stored pixel coordinates
+     * @return A handle that can cancel this request on its own
+     */
+    public LoadHandle loadTile(Photo photo, Rectangle region, int priority, LoadGeneration generation, ImageLoadCallback callback) {
+        lock.lock();
+        try {
+            if (generation != null && generation.cancelled) {
+                return new LoadHandle(null, callback, null);
+            }
+
+            TileKey key = new TileKey(photo, region);
+            ImageLoadTask task = tileTasks.get(key);
+
+            if (task == null || task.cancelled) {
+                task = new ImageLoadTask(photo, priority, true, nextSequence++);
+                task.tileKey = key;
+                tileTasks.put(key, task);
+                offer(task);
+                notEmpty.signal();
+            } else if (task.isQueued() && priority < task.priority) {
+                task.priority = priority;
+                siftUp(task.heapIndex);
+                notEmpty.signal();
+            }
+
+            LoadHandle handle = new LoadHandle(task, callback, generation);
+            task.handles.add(handle);
+            if (generation != null) {
+                generation.handles.add(handle);
+            }
+            return handle;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Holds back queued background loads (anything below on-screen priority) while paused, e.g. under heap pressure.
+     * Loads for the viewer and on-screen thumbnails keep running.
+     */
+    public void setPrefetchPaused(boolean paused) {
+        lock.lock();
+        try {
+            maxRunnablePriority = paused
+                ? Math.max(AppConstants.PHOTO_ONSCREEN_PRIORITY, AppConstants.GROUP_ONSCREEN_PRIORITY)
+                : Integer.MAX_VALUE;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts a new generation for scoping a batch of related requests (e.g. everything queued for one group).
+     */
+    public LoadGeneration newGeneration() {
+        return new LoadGeneration();
     }
 
     private void processQueue() {
         while (!Thread.currentThread().isInterrupted()) {
+            ImageLoadTask task;
+            try {
+                task = take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            BufferedImage image = null;
+            boolean loaded = false;
             try {
-                ImageLoadTask task = taskQueue.take();
-                BufferedImage image;
-                if (!task.isFullImage()) {
+                if (task.tileKey != null) {
+                    image = readFullImage(task, 1);
+                } else if (!task.isFullImage()) {
                     image = task.photo.getThumbnail();
                 } else {
-                    image = ImageIO.read(task.photo.getFile());
-                    // Apply EXIF rotation for full-size images
-                    int orientation = PhotoUtils.getExifOrientation(task.photo.getFile());
-                    image = PhotoUtils.rotateImageByExif(image, orientation);
+                    // Left as stored; the viewer applies the EXIF orientation when it draws the image
+                    image = readFullImage(task, task.photo.getOrientation());
                 }
-                task.callback.onImageLoaded(image);
+                loaded = !task.cancelled;
             } catch (Exception e) {
                 e.printStackTrace();
             }
+
+            List<LoadHandle> handles = complete(task);
+            if (!loaded) {
+                continue;
+            }
+
+            for (LoadHandle handle : handles) {
+                try {
+                    handle.callback.onImageLoaded(image);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private BufferedImage readFullImage(ImageLoadTask task, int orientation) throws IOException {
+        // Same as ImageIO.read, but with a reader we can abort when the task is cancelled mid-decode,
+        // subsampled down to the requested size; readers are pooled per worker thread
+        try (ImageInputStream input = openInput(task)) {
+            ImageReader reader = input == null ? null : ImageDecoder.acquireReader(input);
+            if (reader == null) {
+                return null;
+            }
+
+            try {
+                reader.addIIOReadProgressListener(new AbortWhenCancelled(task));
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (task.tileKey != null) {
+                    Rectangle bounds = new Rectangle(0, 0, reader.getWidth(0), reader.getHeight(0));
+                    Rectangle region = task.tileKey.region.intersection(bounds);
+                    if (region.isEmpty()) {
+                        return null;
+                    }
+                    param.setSourceRegion(region);
+                } else if (task.targetWidth > 0) {
+                    int subsampling = PhotoUtils.getSubsampling(reader.getWidth(0), reader.getHeight(0),
+                            task.targetWidth, task.targetHeight, orientation);
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                ImageDecoder.releaseReader(reader);
+            }
+        }
+    }
+
+    // RAW files are read from the smallest embedded JPEG preview that covers the requested size,
+    // since ImageIO can't decode the raw data. Formats without a TIFF structure (CR3, CRW) fall back to
+    // the EXIF thumbnail, like PhotoUtils does for previews; null if there is neither
+    private ImageInputStream openInput(ImageLoadTask task) throws IOException {
+        File file = task.photo.getFile();
+        if (!PhotoUtils.isRawFile(file)) {
+            return ImageDecoder.openStream(file);
         }
+
+        RawPreviews previews = RawPreviews.scan(file);
+        RawPreviews.Preview preview = task.targetWidth > 0 && task.tileKey == null
+            ? previews.select(task.targetWidth, task.targetHeight, task.photo.getOrientation())
+            : previews.getLargest();
+        byte[] bytes = preview != null ? RawPreviews.read(file, preview) : PhotoUtils.readExifThumbnail(file);
+        if (bytes == null) {
+            return null;
+        }
+        return new MemoryCacheImageInputStream(new ByteArrayInputStream(bytes));
     }
 
     public void shutdown() {
         executor.shutdownNow();
     }
 
+    private Map<Photo, ImageLoadTask> tasksFor(boolean fullImage) {
+        return fullImage ? fullTasks : previewTasks;
+    }
+
+    // Called with the lock held
+    private void unregister(ImageLoadTask task) {
+        if (task.tileKey != null) {
+            tileTasks.remove(task.tileKey, task);
+        } else {
+            tasksFor(task.isFullImage()).remove(task.photo, task);
+        }
+    }
+
+    private ImageLoadTask take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            // The heap's root is its most urgent task, so if that one is held back they all are
+            while (heapSize == 0 || heap[0].priority > maxRunnablePriority) {
+                notEmpty.await();
+            }
+            ImageLoadTask task = heap[0];
+            removeAt(0);
+            // stays registered in previewTasks/fullTasks while decoding, so new requests still coalesce
+            return task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<LoadHandle> complete(ImageLoadTask task) {
+        lock.lock();
+        try {
+            unregister(task);
+            // no handles can be added once the task is unregistered
+            List<LoadHandle> handles = new ArrayList<>(task.handles);
+            for (LoadHandle handle : handles) {
+                handle.finish();
+            }
+            task.handles.clear();
+            return handles;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held
+    private void cancel(LoadHandle handle) {
+        if (!handle.finish()) {
+            return;
+        }
+
+        ImageLoadTask task = handle.task;
+        task.handles.remove(handle);
+        if (!task.handles.isEmpty()) {
+            return;  // someone else still wants this image
+        }
+
+        task.cancelled = true;
+        if (task.isQueued()) {
+            removeAt(task.heapIndex);
+            unregister(task);
+        }
+        // else: decoding, the worker stops at its next progress update and drops the result
+    }
+
+    // Heap operations, all called with the lock held
+
+    private void offer(ImageLoadTask task) {
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, heapSize * 2);
+        }
+        heap[heapSize] = task;
+        task.heapIndex = heapSize;
+        heapSize++;
+        siftUp(task.heapIndex);
+    }
+
+    private void removeAt(int index) {
+        ImageLoadTask removed = heap[index];
+        heapSize--;
+        if (index != heapSize) {
+            ImageLoadTask last = heap[heapSize];
+            place(last, index);
+            siftDown(index);
+            if (heap[index] == last) {
+                siftUp(index);
+            }
+        }
+        heap[heapSize] = null;
+        removed.heapIndex = -1;
+    }
+
+    private void siftUp(int index) {
+        ImageLoadTask task = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent].compareTo(task) <= 0) {
+                break;
+            }
+            place(heap[parent], index);
+            index = parent;
+        }
+        place(task, index);
+    }
+
+    private void siftDown(int index) {
+        ImageLoadTask task = heap[index];
+        int half = heapSize >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < heapSize && heap[right].compareTo(heap[child]) < 0) {
+                child = right;
+            }
+            if (task.compareTo(heap[child]) <= 0) {
+                break;
+            }
+            place(heap[child], index);
+            index = child;
+        }
+        place(task, index);
+    }
+
+    private void place(ImageLoadTask task, int index) {
+        heap[index] = task;
+        task.heapIndex = index;
+    }
+
     private static class ImageLoadTask implements Comparable<ImageLoadTask> {
         private final Photo photo;
         private int priority;
-        private final ImageLoadCallback callback;
-        private boolean fullImage;
+        private final boolean fullImage;
+        private final long sequence;  // arrival order, keeps equal priorities first-in-first-out
+        private int targetWidth = 0;  // decode box for full images, 0 for native resolution
+        private int targetHeight = 0;
+        private TileKey tileKey = null;  // set for region decodes
+        private final List<LoadHandle> handles = new ArrayList<>(1);
+        private int heapIndex = -1;  // -1 once taken off the heap
+        private volatile boolean cancelled = false;  // every handle was cancelled, result is unwanted
 
-        public ImageLoadTask(Photo photo, int priority, boolean fullImage, ImageLoadCallback callback) {
+        public ImageLoadTask(Photo photo, int priority, boolean fullImage, long sequence) {
             this.photo = photo;
             this.priority = priority;
             this.fullImage = fullImage;
-            this.callback = callback;
+            this.sequence = sequence;
         }
 
         public boolean isFullImage() {
             return fullImage;
         }
 
+        public boolean isQueued() {
+            return heapIndex >= 0;
+        }
+
+        // Whether this task's result is at least as large as a request for the given box needs
+        public boolean covers(int width, int height) {
+            if (targetWidth == 0) {
+                return true;
+            }
+            return width > 0 && targetWidth >= width && targetHeight >= height;
+        }
+
+        public void widenTo(int width, int height) {
+            if (width == 0 || targetWidth == 0) {
+                targetWidth = 0;
+                targetHeight = 0;
+            } else {
+                targetWidth = Math.max(targetWidth, width);
+                targetHeight = Math.max(targetHeight, height);
+            }
+        }
+
         @Override
         public int compareTo(ImageLoadTask other) {
-            return Integer.compare(this.priority, other.priority);
+            int byPriority = Integer.compare(this.priority, other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(this.sequence, other.sequence);
+        }
+    }
+
+    private static class TileKey {
+        private final Photo photo;
+        private final Rectangle region;
+
+        TileKey(Photo photo, Rectangle region) {
+            this.photo = photo;
+            this.region = new Rectangle(region);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof TileKey)) {
+                return false;
+            }
+            TileKey key = (TileKey) other;
+            return photo.equals(key.photo) && region.equals(key.region);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(photo, region);
         }
     }
 
@@ -79,23 +494,155 @@ public class ImageLoader {
         void onImageLoaded(BufferedImage image);
     }
 
-    public void updatePriority(Photo photo, int priority) {
-        synchronized (taskQueue) {
-            ImageLoadTask targetTask = null;
+    /**
+     * One caller's interest in a load. Cancelling it drops the callback; the decode itself is only
+     * dropped (or aborted if already running) once every handle on it has been cancelled.
+     */
+    public class LoadHandle {
+        private final ImageLoadTask task;
+        private final ImageLoadCallback callback;
+        private final LoadGeneration generation;
+        private boolean active;  // guarded by lock
+
+        private LoadHandle(ImageLoadTask task, ImageLoadCallback callback, LoadGeneration generation) {
+            this.task = task;
+            this.callback = callback;
+            this.generation = generation;
+            this.active = task != null;
+        }
+
+        public void cancel() {
+            lock.lock();
+            try {
+                ImageLoader.this.cancel(this);
+            } finally {
+                lock.unlock();
+            }
+        }
 
-            for (ImageLoadTask task : taskQueue) {
-                if (task.photo.equals(photo)) {
-                    targetTask = task;
-                    break;
+        public boolean isActive() {
+            lock.lock();
+            try {
+                return active;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Marks the handle as done (completed or cancelled), returns false if it already was
+        private boolean finish() {
+            if (!active) {
+                return false;
+            }
+            active = false;
+            if (generation != null) {
+                generation.handles.remove(this);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Scope for a batch of requests that become stale together, such as all loads for the current group.
+     * Cancelling a generation cancels every request still pending in it, and any later request made against it.
+     */
+    public class LoadGeneration {
+        private final Set<LoadHandle> handles = new LinkedHashSet<>();  // guarded by lock
+        private boolean cancelled = false;
+
+        public void cancel() {
+            lock.lock();
+            try {
+                cancelled = true;
+                for (LoadHandle handle : new ArrayList<>(handles)) {
+                    ImageLoader.this.cancel(handle);
                 }
+            } finally {
+                lock.unlock();
             }
+        }
+
+        public boolean isCancelled() {
+            lock.lock();
+            try {
+                return cancelled;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static class AbortWhenCancelled implements IIOReadProgressListener {
+        private final ImageLoadTask task;
+
+        AbortWhenCancelled(ImageLoadTask task) {
+            this.task = task;
+        }
+
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {
+            if (task.cancelled) {
+                source.abort();
+            }
+        }
+
+        @Override
+        public void sequenceStarted(ImageReader source, int minIndex) {
+        }
+
+        @Override
+        public void sequenceComplete(ImageReader source) {
+        }
+
+        @Override
+        public void imageStarted(ImageReader source, int imageIndex) {
+        }
+
+        @Override
+        public void imageComplete(ImageReader source) {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageReader source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageReader source) {
+        }
+
+        @Override
+        public void readAborted(ImageReader source) {
+        }
+    }
+
+    public void updatePriority(Photo photo, int priority) {
+        // grid cells only request previews, full-image loads keep the priority the viewer gave them
+        lock.lock();
+        try {
+            updatePriority(previewTasks.get(photo), priority);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void updatePriority(ImageLoadTask task, int priority) {
+        if (task == null || !task.isQueued() || task.priority == priority) {
+            return;
+        }
 
-            if (targetTask != null) {
-                // remove and readd the task to update the priority
-                taskQueue.remove(targetTask);
-                targetTask.priority = priority;
-                taskQueue.add(targetTask);
+        boolean raised = priority < task.priority;
+        task.priority = priority;
+        if (raised) {
+            siftUp(task.heapIndex);
+            if (priority <= maxRunnablePriority) {
+                notEmpty.signal();  // may have been held back until now
             }
+        } else {
+            siftDown(task.heapIndex);
         }
     }
-}
\ No newline at end of file
+}
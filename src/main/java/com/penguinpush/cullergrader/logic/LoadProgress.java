@@ -0,0 +1,126 @@
+package com.penguinpush.cullergrader.logic;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of loading a folder, updated by the hashing threads and read by the UI, plus the flag that cancels it.
+ *
+ * Loading reads every file's timestamp first (scanned), then hashes them in timestamp order (hashed), where
+ * cache hits are the hashes found in the hash cache instead of computed. Files that fail to load count as done
+ * too, so progress still reaches the end. The ETA extrapolates the hashing rate so far over the photos left.
+ */
+public class LoadProgress {
+
+    private volatile int total = 0;
+    private final AtomicInteger scanned = new AtomicInteger(0);
+    private final AtomicInteger hashed = new AtomicInteger(0);
+    private final AtomicInteger cacheHits = new AtomicInteger(0);
+    private final AtomicInteger failed = new AtomicInteger(0);
+    private final long startTime = System.currentTimeMillis();
+    private volatile long hashStartTime = 0;
+    private volatile boolean cancelled = false;
+
+    void setTotal(int total) {
+        this.total = total;
+    }
+
+    void fileScanned() {
+        scanned.incrementAndGet();
+    }
+
+    void hashingStarted() {
+        hashStartTime = System.currentTimeMillis();
+    }
+
+    void photoHashed(boolean cacheHit) {
+        if (cacheHit) {
+            cacheHits.incrementAndGet();
+        }
+        hashed.incrementAndGet();
+    }
+
+    void photoFailed() {
+        failed.incrementAndGet();
+    }
+
+    // Photos hashed or given up on
+    private int getDone() {
+        return hashed.get() + failed.get();
+    }
+
+    /**
+     * Stops the load; photos already hashed are still grouped and returned.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getScanned() {
+        return scanned.get();
+    }
+
+    public int getHashed() {
+        return hashed.get();
+    }
+
+    public int getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public long getElapsedMillis() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * Estimated time until every photo is hashed, or -1 until hashing has made enough progress to tell.
+     */
+    public long getEtaMillis() {
+        int done = getDone();
+        if (hashStartTime == 0 || done < 8) {
+            return -1;
+        }
+        long hashingMillis = System.currentTimeMillis() - hashStartTime;
+        return hashingMillis * (total - done) / done;
+    }
+
+    /**
+     * Fraction done, counting the timestamp scan as the first tenth.
+     */
+    public float getFraction() {
+        if (total == 0) {
+            return 0;
+        }
+        return 0.1f * scanned.get() / total + 0.9f * getDone() / total;
+    }
+
+    /**
+     * e.g. "Scanning 1200/5000" or "Hashed 1200/5000 (800 cached, 2 failed), about 2 min left".
+     */
+    @Override
+    public String toString() {
+        if (hashStartTime == 0) {
+            return "Scanning " + scanned.get() + "/" + total;
+        }
+
+        String text = "Hashed " + hashed.get() + "/" + total + " (" + cacheHits.get() + " cached"
+                + (failed.get() > 0 ? ", " + failed.get() + " failed)" : ")");
+        long eta = getEtaMillis();
+        if (eta >= 0 && getDone() < total) {
+            long seconds = (eta + 999) / 1000;
+            text += seconds < 60 ? ", about " + seconds + " s left" : ", about " + ((seconds + 59) / 60) + " min left";
+        }
+        return text;
+    }
+}
@@ -0,0 +1,202 @@
+package com.penguinpush.cullergrader.logic;
+
+import com.penguinpush.cullergrader.config.AppConstants;
+import com.penguinpush.cullergrader.expression.ASTNode;
+import com.penguinpush.cullergrader.expression.ExpressionException;
+import com.penguinpush.cullergrader.expression.GroupMetrics;
+import com.penguinpush.cullergrader.expression.SelectionStrategyManager;
+import com.penguinpush.cullergrader.media.Photo;
+import com.penguinpush.cullergrader.media.PhotoGroup;
+
+import static com.penguinpush.cullergrader.utils.Logger.logMessage;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Evaluates several selection strategies against the same, already-grouped photos and compares the results.
+ * Group metrics are built once and shared; each strategy is evaluated on its own worker thread.
+ * Group selections are never modified, the results live in per-strategy selection bitmaps.
+ */
+public class StrategySweep {
+    private final SelectionStrategyManager strategyManager = new SelectionStrategyManager();
+    private final List<String> strategies;
+    private final List<ASTNode> compiledStrategies = new ArrayList<>();
+
+    private List<PhotoGroup> groups = Collections.emptyList();
+    private BitSet[][] selections = new BitSet[0][];  // [strategy][group]
+
+    /**
+     * Compiles all strategies up front, so invalid expressions fail before any evaluation.
+     *
+     * @param strategies The strategy strings (aliases or expressions)
+     * @throws ExpressionException if any strategy fails to compile or is given twice
+     */
+    public StrategySweep(List<String> strategies) throws ExpressionException {
+        this.strategies = new ArrayList<>(strategies);
+        Set<String> seen = new HashSet<>();
+        for (String strategy : strategies) {
+            // The report keys selections by strategy, a repeated one would hide the other
+            if (!seen.add(strategy)) {
+                throw new ExpressionException("Duplicate strategy '" + strategy + "'");
+            }
+            try {
+                compiledStrategies.add(strategyManager.compileExpression(strategy));
+            } catch (ExpressionException e) {
+                throw new ExpressionException("Invalid strategy '" + strategy + "': " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Evaluates every strategy against the groups.
+     *
+     * @throws IllegalStateException if interrupted before every strategy finished; the sweep has no results then
+     */
+    public void run(List<PhotoGroup> groups) {
+        this.groups = groups;
+
+        // Shared, read-only columns for every group
+        List<GroupMetrics> metrics = new ArrayList<>(groups.size());
+        for (PhotoGroup group : groups) {
+            metrics.add(GroupMetrics.fromGroup(group));
+        }
+
+        int availableProcessors = Runtime.getRuntime().availableProcessors();
+        int maxThreads = Math.max(1, Math.min((int)(availableProcessors * AppConstants.MAX_CPU_USAGE), availableProcessors - 1));
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(maxThreads, strategies.size())));
+
+        List<Callable<BitSet[]>> tasks = new ArrayList<>();
+        for (ASTNode compiledStrategy : compiledStrategies) {
+            tasks.add(() -> {
+                BitSet[] groupSelections = new BitSet[metrics.size()];
+                for (int g = 0; g < metrics.size(); g++) {
+                    groupSelections[g] = strategyManager.evaluateGroup(compiledStrategy, metrics.get(g));
+                }
+                return groupSelections;
+            });
+        }
+
+        selections = new BitSet[strategies.size()][];
+        try {
+            List<Future<BitSet[]>> results = executor.invokeAll(tasks);
+            for (int s = 0; s < results.size(); s++) {
+                selections[s] = results.get(s).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logMessage("thread interrupted: " + e.getMessage());
+            executor.shutdownNow();
+            selections = new BitSet[0][];
+            throw new IllegalStateException("Strategy sweep interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Strategy sweep failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public List<String> getStrategies() {
+        return Collections.unmodifiableList(strategies);
+    }
+
+    public int getSelectedCount(int strategy) {
+        int count = 0;
+        for (BitSet groupSelection : selections[strategy]) {
+            count += groupSelection.cardinality();
+        }
+        return count;
+    }
+
+    /**
+     * Builds the comparison report: per-strategy totals, pairwise overlap, and the groups where strategies disagree.
+     */
+    public Map<String, Object> toReport() {
+        Map<String, Object> report = new LinkedHashMap<>();
+
+        List<Map<String, Object>> strategyList = new ArrayList<>();
+        for (int s = 0; s < strategies.size(); s++) {
+            int groupsWithSelection = 0;
+            for (BitSet groupSelection : selections[s]) {
+                if (!groupSelection.isEmpty()) {
+                    groupsWithSelection++;
+                }
+            }
+
+            Map<String, Object> strategyMap = new LinkedHashMap<>();
+            strategyMap.put("strategy", strategies.get(s));
+            String expansion = SelectionStrategyManager.getAliasExpansion(strategies.get(s));
+            if (expansion != null) {
+                strategyMap.put("expression", expansion);
+            }
+            strategyMap.put("selectedPhotos", getSelectedCount(s));
+            strategyMap.put("groupsWithSelection", groupsWithSelection);
+            strategyMap.put("emptyGroups", groups.size() - groupsWithSelection);
+            strategyList.add(strategyMap);
+        }
+        report.put("strategies", strategyList);
+
+        // Pairwise overlap of the selected photo sets
+        List<Map<String, Object>> overlapList = new ArrayList<>();
+        for (int a = 0; a < strategies.size(); a++) {
+            for (int b = a + 1; b < strategies.size(); b++) {
+                int both = 0;
+                int onlyA = 0;
+                int onlyB = 0;
+                for (int g = 0; g < groups.size(); g++) {
+                    BitSet intersection = (BitSet) selections[a][g].clone();
+                    intersection.and(selections[b][g]);
+                    int shared = intersection.cardinality();
+                    both += shared;
+                    onlyA += selections[a][g].cardinality() - shared;
+                    onlyB += selections[b][g].cardinality() - shared;
+                }
+                int union = both + onlyA + onlyB;
+
+                Map<String, Object> overlapMap = new LinkedHashMap<>();
+                overlapMap.put("a", strategies.get(a));
+                overlapMap.put("b", strategies.get(b));
+                overlapMap.put("both", both);
+                overlapMap.put("onlyA", onlyA);
+                overlapMap.put("onlyB", onlyB);
+                overlapMap.put("jaccard", union == 0 ? 1.0 : (double) both / union);
+                overlapList.add(overlapMap);
+            }
+        }
+        report.put("overlap", overlapList);
+
+        // Only list groups where at least two strategies picked different photos
+        List<Map<String, Object>> differingGroups = new ArrayList<>();
+        for (int g = 0; g < groups.size(); g++) {
+            boolean differs = false;
+            for (int s = 1; s < strategies.size() && !differs; s++) {
+                differs = !selections[s][g].equals(selections[0][g]);
+            }
+            if (!differs) {
+                continue;
+            }
+
+            PhotoGroup group = groups.get(g);
+            Map<String, Object> selectionMap = new LinkedHashMap<>();
+            for (int s = 0; s < strategies.size(); s++) {
+                List<String> filenames = new ArrayList<>();
+                BitSet groupSelection = selections[s][g];
+                for (int row = groupSelection.nextSetBit(0); row >= 0; row = groupSelection.nextSetBit(row + 1)) {
+                    Photo photo = group.getPhotos().get(row);
+                    filenames.add(photo.getFile().getName());
+                }
+                selectionMap.put(strategies.get(s), filenames);
+            }
+
+            Map<String, Object> groupMap = new LinkedHashMap<>();
+            groupMap.put("groupIndex", group.getIndex());
+            groupMap.put("photoCount", group.getSize());
+            groupMap.put("selections", selectionMap);
+            differingGroups.add(groupMap);
+        }
+        report.put("differingGroupCount", differingGroups.size());
+        report.put("differingGroups", differingGroups);
+
+        return report;
+    }
+}
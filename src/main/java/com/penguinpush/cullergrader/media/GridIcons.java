@@ -0,0 +1,142 @@
+package com.penguinpush.cullergrader.media;
+
+import javax.swing.ImageIcon;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Grid cell icons, scaled once to the cell size and cached per (photo, cell size).
+ *
+ * Icons are scaled on the loader thread into an image in the screen's native format, so painting a cell is a
+ * plain copy with no scaling or format conversion, and a cell scrolled back into view reuses its icon without
+ * a load. The icons count towards the MemoryBudget in the thumbnails tier and are shed least recently used first;
+ * they are rebuilt from the photo's thumbnail.
+ */
+public class GridIcons implements MemoryBudget.Cache {
+    private static final GridIcons instance = new GridIcons();
+
+    private static GraphicsConfiguration graphicsConfiguration;  // null when headless
+
+    private final LinkedHashMap<IconKey, Entry> icons = new LinkedHashMap<>(16, 0.75f, true);  // access order
+    private final AtomicLong heapBytes = new AtomicLong(0);
+
+    static {
+        if (!GraphicsEnvironment.isHeadless()) {
+            graphicsConfiguration = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+        }
+        MemoryBudget.register(MemoryBudget.Tier.THUMBNAILS, instance);
+    }
+
+    private static class IconKey {
+        final Photo photo;
+        final int width;
+        final int height;
+
+        IconKey(Photo photo, int width, int height) {
+            this.photo = photo;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof IconKey)) {
+                return false;
+            }
+            IconKey key = (IconKey) other;
+            return key.photo == photo && key.width == width && key.height == height;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(photo), width, height);
+        }
+    }
+
+    private static class Entry {
+        final ImageIcon icon;
+        final long weight;
+
+        Entry(ImageIcon icon, long weight) {
+            this.icon = icon;
+            this.weight = weight;
+        }
+    }
+
+    private GridIcons() {
+    }
+
+    /**
+     * The icon already made for a photo at a cell size, or null.
+     */
+    public static ImageIcon getCached(Photo photo, int width, int height) {
+        synchronized (instance) {
+            Entry entry = instance.icons.get(new IconKey(photo, width, height));
+            return entry == null ? null : entry.icon;
+        }
+    }
+
+    /**
+     * Scales a photo's thumbnail to a cell size and caches it. Meant for the loader thread, so the EDT gets an
+     * icon that is ready to draw.
+     */
+    public static ImageIcon create(Photo photo, BufferedImage thumbnail, int width, int height) {
+        BufferedImage scaled = createCompatibleImage(width, height);
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(thumbnail, 0, 0, width, height, null);
+        g.dispose();
+
+        ImageIcon icon = new ImageIcon(scaled);
+        Entry entry = new Entry(icon, PreviewCache.weigh(scaled));
+        synchronized (instance) {
+            Entry previous = instance.icons.put(new IconKey(photo, width, height), entry);
+            instance.heapBytes.addAndGet(entry.weight - (previous == null ? 0 : previous.weight));
+        }
+        MemoryBudget.rebalance();
+        return icon;
+    }
+
+    /**
+     * Forgets every icon, e.g. when a new folder replaces the current photos.
+     */
+    static void clear() {
+        synchronized (instance) {
+            instance.icons.clear();
+            instance.heapBytes.set(0);
+        }
+    }
+
+    private static BufferedImage createCompatibleImage(int width, int height) {
+        if (graphicsConfiguration != null) {
+            return graphicsConfiguration.createCompatibleImage(width, height, Transparency.OPAQUE);
+        }
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Override
+    public long getHeapBytes() {
+        return heapBytes.get();
+    }
+
+    @Override
+    public synchronized long shed(long bytes) {
+        long freed = 0;
+        Iterator<Entry> oldest = icons.values().iterator();
+        while (freed < bytes && oldest.hasNext()) {
+            Entry entry = oldest.next();
+            oldest.remove();
+            freed += entry.weight;
+        }
+        heapBytes.addAndGet(-freed);
+        return freed;
+    }
+}
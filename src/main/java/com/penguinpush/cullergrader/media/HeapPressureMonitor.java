@@ -0,0 +1,180 @@
+package com.penguinpush.cullergrader.media;
+
+import static com.penguinpush.cullergrader.utils.Logger.logMessage;
+
+import com.penguinpush.cullergrader.config.AppConstants;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+/**
+ * Watches the heap itself, so the app sheds cached images and slows down instead of dying with OutOfMemoryError.
+ *
+ * Pressure starts when a heap pool stays above HEAP_PRESSURE_PERCENT after a collection (its collection usage
+ * threshold), or passes it between collections by enough that a collection may not catch up (its usage threshold,
+ * set halfway to full). Each time, at most once per collection, HEAP_PRESSURE_SHED_PERCENT of every cache in the
+ * MemoryBudget is dropped and listeners are told, so background prefetch can pause. Garbage collection notifications
+ * re-check usage after each collection; pressure ends once it settles back below the threshold by RESUME_MARGIN.
+ */
+public class HeapPressureMonitor {
+
+    /**
+     * Told when heap pressure starts and ends, on a JMX notification thread.
+     */
+    public interface Listener {
+        void onHeapPressureChanged(boolean underPressure);
+    }
+
+    private static final String GC_NOTIFICATION = "com.sun.management.gc.notification";  // HotSpot's GarbageCollectionNotificationInfo
+    private static final float RESUME_MARGIN = 0.15f;
+
+    private static final float pressureFraction = AppConstants.HEAP_PRESSURE_PERCENT / 100f;
+    private static final float shedFraction = AppConstants.HEAP_PRESSURE_SHED_PERCENT / 100f;
+
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private static final List<MemoryPoolMXBean> watchedPools = new ArrayList<>();
+    private static volatile boolean underPressure = false;
+    private static long lastShedCollections = -1;  // guarded by the class, collection count at the last shed
+    private static boolean started = false;
+
+    private HeapPressureMonitor() {
+    }
+
+    /**
+     * Sets the pool thresholds and starts listening. Does nothing if already started, or if the JVM's
+     * heap pools don't support thresholds.
+     */
+    public static synchronized void start() {
+        if (started || pressureFraction <= 0) {
+            return;
+        }
+        started = true;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            long max = pool.getUsage().getMax();
+            // Only the old generation supports both thresholds; young pools are full or empty by design
+            if (pool.getType() != MemoryType.HEAP || max <= 0
+                    || !pool.isCollectionUsageThresholdSupported() || !pool.isUsageThresholdSupported()) {
+                continue;
+            }
+            pool.setCollectionUsageThreshold((long) (max * pressureFraction));
+            pool.setUsageThreshold((long) (max * (pressureFraction + (1 - pressureFraction) / 2)));
+            watchedPools.add(pool);
+        }
+        if (watchedPools.isEmpty()) {
+            logMessage("no heap pools support usage thresholds, heap pressure monitoring is off");
+            return;
+        }
+
+        NotificationListener thresholdListener = (notification, handback) -> {
+            String type = notification.getType();
+            if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type)
+                    || MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(type)) {
+                onPressure(type.equals(MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED) ? "before collection" : "after collection",
+                        getUsageFraction(false));
+            }
+        };
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(thresholdListener, null, null);
+
+        NotificationListener collectionListener = (notification, handback) -> onCollection(notification);
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter) {
+                ((NotificationEmitter) collector).addNotificationListener(collectionListener, null, null);
+            }
+        }
+    }
+
+    public static void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public static boolean isUnderPressure() {
+        return underPressure;
+    }
+
+    private static void onCollection(Notification notification) {
+        if (!GC_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+
+        float usage = getUsageFraction(true);
+        if (usage >= pressureFraction) {
+            onPressure("after collection", usage);
+        } else if (usage < pressureFraction - RESUME_MARGIN && endPressure()) {
+            logMessage("Heap pressure eased (" + Math.round(usage * 100) + "% after collection), resuming background loading");
+            for (Listener listener : listeners) {
+                listener.onHeapPressureChanged(false);
+            }
+        }
+    }
+
+    private static void onPressure(String when, float usage) {
+        boolean entering;
+        synchronized (HeapPressureMonitor.class) {
+            // Both listeners report the same collection; shedding twice for it would drop more than intended
+            long collections = getCollectionCount();
+            if (collections == lastShedCollections) {
+                return;
+            }
+            lastShedCollections = collections;
+            entering = !underPressure;
+            underPressure = true;
+        }
+
+        String shed = MemoryBudget.shedFraction(shedFraction);
+        logMessage("Heap pressure (" + Math.round(usage * 100) + "% used " + when + "), dropped "
+                + (shed.isEmpty() ? "nothing" : shed) + (entering ? ", pausing background loading" : ""));
+        if (entering) {
+            for (Listener listener : listeners) {
+                listener.onHeapPressureChanged(true);
+            }
+        }
+    }
+
+    private static synchronized boolean endPressure() {
+        if (!underPressure) {
+            return false;
+        }
+        underPressure = false;
+        return true;
+    }
+
+    private static long getCollectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    // Fullest watched pool. After a collection, a pool's collection usage can be stale (G1 only updates the
+    // old generation's on mixed collections), so the lower of it and current usage is taken
+    private static float getUsageFraction(boolean afterCollection) {
+        float fraction = 0;
+        for (MemoryPoolMXBean pool : watchedPools) {
+            MemoryUsage usage = pool.getUsage();
+            long used = usage.getUsed();
+            MemoryUsage collectionUsage = afterCollection ? pool.getCollectionUsage() : null;
+            if (collectionUsage != null) {
+                used = Math.min(used, collectionUsage.getUsed());
+            }
+            if (usage.getMax() > 0) {
+                fraction = Math.max(fraction, (float) used / usage.getMax());
+            }
+        }
+        return fraction;
+    }
+}
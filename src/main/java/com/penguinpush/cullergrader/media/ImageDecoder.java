@@ -0,0 +1,229 @@
+package com.penguinpush.cullergrader.media;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * Replacement for ImageIO.read that reuses what it can between decodes.
+ *
+ * Readers are pooled per thread and per format, so a decode doesn't look up the reader providers and build a new
+ * reader each time. Streams are opened directly, never through ImageIO's temporary-file cache. Callers that only
+ * need a decoded image briefly (scaling it down, say) can decode into a scratch image and hand it back with
+ * recycle(); the next decode of the same size and type reuses its pixel buffer, which during ingest, where every
+ * photo in a shoot has the same dimensions, removes the largest allocation per photo. Idle scratch images are
+ * capped in bytes, count towards the MemoryBudget and are the first thing shed; clearPool() drops them all once
+ * a batch of decodes is done.
+ */
+public class ImageDecoder {
+    private static final int MAX_READERS_PER_THREAD = 4;
+    // Full-size decodes are tens of megabytes each, so the pool is capped by size rather than count
+    private static final long MAX_POOLED_BYTES = Runtime.getRuntime().maxMemory() / 16;
+
+    private static final ThreadLocal<List<ImageReader>> readers = ThreadLocal.withInitial(ArrayList::new);
+
+    private static final LinkedList<BufferedImage> pooledImages = new LinkedList<>();  // guarded by itself, oldest first
+    private static final Set<BufferedImage> scratchImages = Collections.newSetFromMap(new WeakHashMap<>());  // guarded by pooledImages
+    private static long pooledBytes = 0;  // guarded by pooledImages
+
+    private static final MemoryBudget.Cache pool = new MemoryBudget.Cache() {
+        @Override
+        public long getHeapBytes() {
+            synchronized (pooledImages) {
+                return pooledBytes;
+            }
+        }
+
+        @Override
+        public long shed(long bytes) {
+            long freed = 0;
+            synchronized (pooledImages) {
+                while (freed < bytes && !pooledImages.isEmpty()) {
+                    long weight = PreviewCache.weigh(pooledImages.removeFirst());
+                    pooledBytes -= weight;
+                    freed += weight;
+                }
+            }
+            return freed;
+        }
+    };
+
+    static {
+        MemoryBudget.register(MemoryBudget.Tier.SCRATCH, pool);
+    }
+
+    private ImageDecoder() {
+    }
+
+    /**
+     * Decodes a file like ImageIO.read.
+     *
+     * @param scratch Whether the image is only needed briefly; if so it may reuse a recycled pixel buffer,
+     *                and should be passed to recycle() once it's no longer referenced
+     * @return The image, or null if no reader supports the file
+     */
+    public static BufferedImage read(File file, boolean scratch) throws IOException {
+        try (ImageInputStream input = openStream(file)) {
+            return read(input, scratch);
+        }
+    }
+
+    /**
+     * Decodes an in-memory image, such as a RAW file's embedded preview. See read(File, boolean).
+     */
+    public static BufferedImage read(byte[] bytes, boolean scratch) throws IOException {
+        try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(bytes))) {
+            return read(input, scratch);
+        }
+    }
+
+    /**
+     * Hands back a scratch image from read() for reuse. The caller must not use it afterwards.
+     * Images that weren't decoded as scratch are ignored, so anything may be passed.
+     */
+    public static void recycle(BufferedImage image) {
+        if (image == null) {
+            return;
+        }
+        long weight = PreviewCache.weigh(image);
+        synchronized (pooledImages) {
+            if (!scratchImages.remove(image) || weight > MAX_POOLED_BYTES) {
+                return;
+            }
+            pooledImages.addLast(image);
+            pooledBytes += weight;
+            while (pooledBytes > MAX_POOLED_BYTES) {
+                pooledBytes -= PreviewCache.weigh(pooledImages.removeFirst());
+            }
+        }
+    }
+
+    /**
+     * Drops every recycled image, e.g. once a folder is hashed and no more same-size decodes are coming.
+     */
+    public static void clearPool() {
+        synchronized (pooledImages) {
+            pooledImages.clear();
+            pooledBytes = 0;
+        }
+    }
+
+    /**
+     * Opens a file for a reader, without ImageIO's provider lookup or cache.
+     */
+    public static ImageInputStream openStream(File file) throws IOException {
+        return new FileImageInputStream(file);
+    }
+
+    /**
+     * Takes a reader for the stream from this thread's pool, or creates one, with the stream set as its input
+     * (seek forward only, metadata ignored). Must be given back with releaseReader().
+     *
+     * @return The reader, or null if no reader supports the stream
+     */
+    public static ImageReader acquireReader(ImageInputStream input) throws IOException {
+        ImageReader reader = null;
+        Iterator<ImageReader> pooled = readers.get().iterator();
+        while (pooled.hasNext()) {
+            ImageReader candidate = pooled.next();
+            if (candidate.getOriginatingProvider().canDecodeInput(input)) {
+                pooled.remove();
+                reader = candidate;
+                break;
+            }
+        }
+
+        if (reader == null) {
+            Iterator<ImageReader> found = ImageIO.getImageReaders(input);
+            if (!found.hasNext()) {
+                return null;
+            }
+            reader = found.next();
+        }
+        reader.setInput(input, true, true);
+        return reader;
+    }
+
+    /**
+     * Returns a reader to this thread's pool, clearing its input and listeners.
+     */
+    public static void releaseReader(ImageReader reader) {
+        List<ImageReader> pooled = readers.get();
+        if (reader.getOriginatingProvider() == null || pooled.size() >= MAX_READERS_PER_THREAD) {
+            reader.dispose();
+            return;
+        }
+        reader.reset();
+        pooled.add(reader);
+    }
+
+    private static BufferedImage read(ImageInputStream input, boolean scratch) throws IOException {
+        if (input == null) {
+            return null;
+        }
+        ImageReader reader = acquireReader(input);
+        if (reader == null) {
+            return null;
+        }
+
+        try {
+            ImageReadParam param = reader.getDefaultReadParam();
+            if (scratch) {
+                BufferedImage destination = takePooledImage(reader);
+                if (destination != null) {
+                    param.setDestination(destination);
+                }
+            }
+            BufferedImage image = reader.read(0, param);
+            if (scratch && image != null) {
+                synchronized (pooledImages) {
+                    scratchImages.add(image);
+                }
+            }
+            return image;
+        } finally {
+            releaseReader(reader);
+        }
+    }
+
+    // A recycled image the reader would decode into as is: same size, and the type it picks by default
+    private static BufferedImage takePooledImage(ImageReader reader) throws IOException {
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        if (!types.hasNext()) {
+            return null;
+        }
+        ImageTypeSpecifier type = types.next();
+
+        synchronized (pooledImages) {
+            Iterator<BufferedImage> pooled = pooledImages.iterator();
+            while (pooled.hasNext()) {
+                BufferedImage image = pooled.next();
+                if (image.getWidth() == width && image.getHeight() == height
+                        && type.getColorModel().equals(image.getColorModel())
+                        && type.getSampleModel(width, height).equals(image.getSampleModel())) {
+                    pooled.remove();
+                    pooledBytes -= PreviewCache.weigh(image);
+                    return image;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,215 @@
+package com.penguinpush.cullergrader.media;
+
+import static com.penguinpush.cullergrader.utils.Logger.logToConsoleOnly;
+
+import com.penguinpush.cullergrader.config.AppConstants;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One heap budget shared by every image cache, so together they can't outgrow the heap.
+ *
+ * Caches register under a tier and report the heap they hold; transient memory that can't be evicted, such as
+ * full-size images decoded for hashing, is reserved instead. When the total goes over budget, tiers are asked to
+ * shed in priority order (cheapest to rebuild first) until usage is back under a low-water mark, so a busy cache
+ * doesn't trigger a shed on every insert.
+ *
+ * The budget is MEMORY_BUDGET_MB, or three quarters of the maximum heap when that is 0.
+ */
+public class MemoryBudget {
+
+    /**
+     * Cache tiers, in the order they are shed.
+     */
+    public enum Tier {
+        SCRATCH("scratch"),        // full-size images being decoded, which can't be shed, and idle decode buffers
+        THUMBNAILS("thumbnails"),  // grid thumbnails held by photos, usually shared with previews
+        PREVIEWS("previews"),      // in-memory preview cache
+        VIEWER("viewer");          // viewer-resolution images around the current photo
+
+        private final String label;
+
+        Tier(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    /**
+     * A cache whose memory counts towards the budget.
+     */
+    public interface Cache {
+        /**
+         * Heap currently held, in bytes. Called often and from any thread, so it shouldn't block.
+         */
+        long getHeapBytes();
+
+        /**
+         * Evicts roughly this many bytes, least valuable first.
+         *
+         * @return The bytes actually freed
+         */
+        long shed(long bytes);
+    }
+
+    private static final float LOW_WATER_FRACTION = 0.9f;
+
+    private static final long budgetBytes = AppConstants.MEMORY_BUDGET_MB > 0
+        ? AppConstants.MEMORY_BUDGET_MB * 1024L * 1024L
+        : Runtime.getRuntime().maxMemory() / 4 * 3;
+
+    private static final List<Registration> caches = new CopyOnWriteArrayList<>();
+    private static final Map<Tier, AtomicLong> reserved = new EnumMap<>(Tier.class);
+    private static final AtomicBoolean rebalancing = new AtomicBoolean(false);
+
+    static {
+        for (Tier tier : Tier.values()) {
+            reserved.put(tier, new AtomicLong(0));
+        }
+    }
+
+    private static class Registration {
+        final Tier tier;
+        final Cache cache;
+
+        Registration(Tier tier, Cache cache) {
+            this.tier = tier;
+            this.cache = cache;
+        }
+    }
+
+    private MemoryBudget() {
+    }
+
+    public static void register(Tier tier, Cache cache) {
+        caches.add(new Registration(tier, cache));
+    }
+
+    public static void unregister(Cache cache) {
+        caches.removeIf(registration -> registration.cache == cache);
+    }
+
+    /**
+     * Counts memory that isn't held by a registered cache, such as a decode in progress, until released.
+     *
+     * @return The bytes reserved, to pass back to release()
+     */
+    public static long reserve(Tier tier, long bytes) {
+        reserved.get(tier).addAndGet(bytes);
+        rebalance();
+        return bytes;
+    }
+
+    public static void release(Tier tier, long bytes) {
+        reserved.get(tier).addAndGet(-bytes);
+    }
+
+    /**
+     * Sheds cached images if the caches are over budget. Cheap when they aren't, so caches call it after every insert.
+     * Must not be called while holding a cache's lock.
+     */
+    public static void rebalance() {
+        if (getTotalUsage() <= budgetBytes || !rebalancing.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            long excess = getTotalUsage() - (long) (budgetBytes * LOW_WATER_FRACTION);
+            StringBuilder shedSummary = new StringBuilder();
+            for (Tier tier : Tier.values()) {
+                long freed = 0;
+                for (Registration registration : caches) {
+                    if (registration.tier == tier && excess > 0) {
+                        long shed = registration.cache.shed(excess);
+                        freed += shed;
+                        excess -= shed;
+                    }
+                }
+                appendShed(shedSummary, tier, freed);
+            }
+            if (shedSummary.length() > 0) {
+                logToConsoleOnly("Over memory budget, shed " + shedSummary + " (" + describeUsage() + ")");
+            }
+        } finally {
+            rebalancing.set(false);
+        }
+    }
+
+    /**
+     * Sheds a fraction of every cache, whatever the budget says; for when the heap itself is running out.
+     *
+     * @return What was dropped, e.g. "previews 120 MB, viewer 48 MB", or an empty string if nothing was
+     */
+    public static String shedFraction(float fraction) {
+        StringBuilder shedSummary = new StringBuilder();
+        for (Tier tier : Tier.values()) {
+            long freed = 0;
+            for (Registration registration : caches) {
+                if (registration.tier == tier) {
+                    long bytes = (long) (registration.cache.getHeapBytes() * fraction);
+                    freed += bytes > 0 ? registration.cache.shed(bytes) : 0;
+                }
+            }
+            appendShed(shedSummary, tier, freed);
+        }
+        return shedSummary.toString();
+    }
+
+    /**
+     * Heap held by one tier's caches and reservations, in bytes.
+     */
+    public static long getUsage(Tier tier) {
+        long usage = reserved.get(tier).get();
+        for (Registration registration : caches) {
+            if (registration.tier == tier) {
+                usage += registration.cache.getHeapBytes();
+            }
+        }
+        return usage;
+    }
+
+    public static long getTotalUsage() {
+        long usage = 0;
+        for (Tier tier : Tier.values()) {
+            usage += getUsage(tier);
+        }
+        return usage;
+    }
+
+    public static long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * Per-tier usage for logging, e.g. "scratch 0 MB, thumbnails 12 MB, previews 310 MB, viewer 96 MB (418/3072 MB)".
+     */
+    public static String describeUsage() {
+        StringBuilder usage = new StringBuilder();
+        for (Tier tier : Tier.values()) {
+            usage.append(usage.length() == 0 ? "" : ", ").append(tier).append(" ").append(formatBytes(getUsage(tier)));
+        }
+        return usage + " (" + toMegabytes(getTotalUsage()) + "/" + toMegabytes(budgetBytes) + " MB)";
+    }
+
+    private static void appendShed(StringBuilder shedSummary, Tier tier, long freed) {
+        if (freed > 0) {
+            shedSummary.append(shedSummary.length() == 0 ? "" : ", ").append(tier).append(" ").append(formatBytes(freed));
+        }
+    }
+
+    private static long toMegabytes(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+
+    private static String formatBytes(long bytes) {
+        return bytes < 1024 * 1024 && bytes != 0 ? (bytes / 1024) + " KB" : toMegabytes(bytes) + " MB";
+    }
+}
@@ -0,0 +1,183 @@
+package com.penguinpush.cullergrader.media;
+
+import static com.penguinpush.cullergrader.utils.Logger.logMessage;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Preview pixel storage outside the Java heap, so a large preview cache doesn't grow the heap or old-gen GC work.
+ *
+ * Memory comes from direct ByteBuffer slabs, allocated lazily up to the budget and cut into fixed-size chunks.
+ * A preview takes as many chunks as its pixels need, not necessarily contiguous, so freed space is always reusable
+ * and the free list is just a stack of chunk numbers. Pixels are packed as RGB (or ARGB for transparent previews).
+ *
+ * Not thread-safe; PreviewCache calls it with its monitor held.
+ */
+class OffHeapPreviewStore {
+    static final int CHUNK_SIZE = 4096;
+    private static final int MAX_CHUNKS_PER_SLAB = 16384;  // 64 MB slabs
+
+    private final int chunksPerSlab;  // smaller for budgets under one slab
+    private final int maxSlabs;
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private int[] freeChunks = new int[0];
+    private int freeCount = 0;
+    private boolean exhausted = false;  // direct memory ran out, stop trying to grow
+
+    OffHeapPreviewStore(long maxBytes) {
+        long maxChunks = Math.max(1, (maxBytes + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        this.chunksPerSlab = (int) Math.min(MAX_CHUNKS_PER_SLAB, maxChunks);
+        this.maxSlabs = (int) ((maxChunks + chunksPerSlab - 1) / chunksPerSlab);
+    }
+
+    /**
+     * Off-heap bytes a preview will take, rounded up to whole chunks.
+     */
+    static long weigh(BufferedImage preview) {
+        return (long) chunksFor(preview) * CHUNK_SIZE;
+    }
+
+    private static int chunksFor(BufferedImage preview) {
+        long bytes = (long) preview.getWidth() * preview.getHeight() * bytesPerPixel(preview);
+        return (int) ((bytes + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    private static int bytesPerPixel(BufferedImage preview) {
+        return preview.getColorModel().hasAlpha() ? 4 : 3;
+    }
+
+    /**
+     * Copies a preview's pixels off-heap.
+     *
+     * @return The chunks holding the pixels, or null if no memory is left
+     */
+    int[] store(BufferedImage preview) {
+        int[] chunks = allocate(chunksFor(preview));
+        if (chunks == null) {
+            return null;
+        }
+
+        int width = preview.getWidth();
+        int height = preview.getHeight();
+        int bytesPerPixel = bytesPerPixel(preview);
+        byte[] packed = new byte[width * height * bytesPerPixel];
+        int[] row = new int[width];
+        int index = 0;
+        for (int y = 0; y < height; y++) {
+            preview.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                int argb = row[x];
+                if (bytesPerPixel == 4) {
+                    packed[index++] = (byte) (argb >>> 24);
+                }
+                packed[index++] = (byte) (argb >>> 16);
+                packed[index++] = (byte) (argb >>> 8);
+                packed[index++] = (byte) argb;
+            }
+        }
+
+        copy(chunks, packed, true);
+        return chunks;
+    }
+
+    /**
+     * Rebuilds a preview from its chunks as a heap image.
+     */
+    BufferedImage load(int[] chunks, int width, int height, boolean alpha) {
+        int bytesPerPixel = alpha ? 4 : 3;
+        byte[] packed = new byte[width * height * bytesPerPixel];
+        copy(chunks, packed, false);
+
+        BufferedImage image = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int index = 0;
+        for (int i = 0; i < pixels.length; i++) {
+            int a = alpha ? (packed[index++] & 0xFF) << 24 : 0;
+            int r = packed[index++] & 0xFF;
+            int g = packed[index++] & 0xFF;
+            int b = packed[index++] & 0xFF;
+            pixels[i] = a | (r << 16) | (g << 8) | b;
+        }
+        return image;
+    }
+
+    void free(int[] chunks) {
+        if (freeCount + chunks.length > freeChunks.length) {
+            freeChunks = Arrays.copyOf(freeChunks, Math.max(freeCount + chunks.length, freeChunks.length * 2));
+        }
+        for (int chunk : chunks) {
+            freeChunks[freeCount++] = chunk;
+        }
+    }
+
+    /**
+     * Marks every chunk free. The slabs themselves are kept for reuse.
+     */
+    void clear() {
+        freeCount = 0;
+        for (int slab = 0; slab < slabs.size(); slab++) {
+            addSlabChunks(slab);
+        }
+    }
+
+    long getReservedBytes() {
+        return (long) slabs.size() * chunksPerSlab * CHUNK_SIZE;
+    }
+
+    private int[] allocate(int count) {
+        while (freeCount < count) {
+            if (!addSlab()) {
+                return null;
+            }
+        }
+        int[] chunks = Arrays.copyOfRange(freeChunks, freeCount - count, freeCount);
+        freeCount -= count;
+        return chunks;
+    }
+
+    private boolean addSlab() {
+        if (exhausted || slabs.size() >= maxSlabs) {
+            return false;
+        }
+        try {
+            slabs.add(ByteBuffer.allocateDirect(chunksPerSlab * CHUNK_SIZE));
+        } catch (OutOfMemoryError e) {
+            exhausted = true;
+            logMessage("couldn't allocate off-heap preview memory, raise -XX:MaxDirectMemorySize to cache more previews");
+            return false;
+        }
+        addSlabChunks(slabs.size() - 1);
+        return true;
+    }
+
+    private void addSlabChunks(int slab) {
+        if (freeCount + chunksPerSlab > freeChunks.length) {
+            freeChunks = Arrays.copyOf(freeChunks, freeCount + chunksPerSlab);
+        }
+        // Pushed in reverse so allocations hand out low chunk numbers first
+        for (int chunk = chunksPerSlab - 1; chunk >= 0; chunk--) {
+            freeChunks[freeCount++] = slab * chunksPerSlab + chunk;
+        }
+    }
+
+    // Copies between a packed byte array and its chunks, in chunk order
+    private void copy(int[] chunks, byte[] packed, boolean toChunks) {
+        int offset = 0;
+        for (int chunk : chunks) {
+            int length = Math.min(CHUNK_SIZE, packed.length - offset);
+            ByteBuffer view = slabs.get(chunk / chunksPerSlab).duplicate();
+            view.position((chunk % chunksPerSlab) * CHUNK_SIZE);
+            if (toChunks) {
+                view.put(packed, offset, length);
+            } else {
+                view.get(packed, offset, length);
+            }
+            offset += length;
+        }
+    }
+}
@@ -8,6 +8,7 @@ import static com.penguinpush.cullergrader.utils.Logger.logMessage;
 import javax.swing.*;
 
 import java.io.File;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.lang.ref.SoftReference;
@@ -22,6 +23,9 @@ public class Photo extends GridMedia {
     private final ExecutionMode mode;
     private int grade;
     private PhotoGroup group;
+    private volatile int orientation = 0;  // EXIF orientation, 0 until read
+    private volatile Dimension storedSize;  // null until read, or if it can't be read
+    private volatile boolean storedSizeRead = false;
 
     private float deltaTimeRatio;
     private float hammingDistanceRatio;
@@ -42,7 +46,8 @@ public class Photo extends GridMedia {
                 thumbnail = generateThumbnail(file);
             } catch (Exception e) {
             }
-            thumbnailRef = new SoftReference<>(thumbnail);
+            // Tracked thumbnails count towards the memory budget and can be shed under it
+            thumbnailRef = thumbnail == null ? new SoftReference<>(null) : PhotoThumbnails.track(this, thumbnail);
         }
         return thumbnail;
     }
@@ -88,6 +93,36 @@ public class Photo extends GridMedia {
         return file.getAbsolutePath();
     }
 
+    /**
+     * The EXIF orientation (1-8), read from the file on first use.
+     */
+    public int getOrientation() {
+        if (orientation == 0) {
+            int read = PhotoUtils.getExifOrientation(file);
+            orientation = read >= 1 && read <= 8 ? read : 1;
+        }
+        return orientation;
+    }
+
+    /**
+     * The image size as stored (before EXIF rotation), read from the file header on first use.
+     * Null for files that can't be region-decoded, such as RAW files.
+     */
+    public Dimension getStoredSize() {
+        if (!storedSizeRead) {
+            storedSize = PhotoUtils.readImageSize(file);
+            storedSizeRead = true;
+        }
+        return storedSize;
+    }
+
+    /**
+     * Whether getStoredSize() would return without reading the file.
+     */
+    public boolean isStoredSizeRead() {
+        return storedSizeRead;
+    }
+
     public long getTimestamp() {
         return timestamp;
     }
@@ -121,6 +156,14 @@ public class Photo extends GridMedia {
         this.hammingDistanceRatio = hammingDistanceRatio;
     }
 
+    public float getDeltaTimeRatio() {
+        return deltaTimeRatio;
+    }
+
+    public float getHammingDistanceRatio() {
+        return hammingDistanceRatio;
+    }
+
     public List<Float> getMetrics() {
         List<Float> metrics = new ArrayList<>();
         metrics.add(deltaTimeRatio);
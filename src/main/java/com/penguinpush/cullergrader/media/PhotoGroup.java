@@ -5,15 +5,26 @@ import static com.penguinpush.cullergrader.utils.Logger.logMessage;
 
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 
 public class PhotoGroup extends GridMedia {
+
+    /**
+     * Told when the group's selected takes change, on the thread that changed them.
+     */
+    public interface SelectionListener {
+        void onSelectionChanged(PhotoGroup group);
+    }
+
     private final List<Photo> photos = new ArrayList<>();
     private final LinkedHashSet<Photo> selectedTakes = new LinkedHashSet<>();
+    private final List<SelectionListener> selectionListeners = new CopyOnWriteArrayList<>();
     private float maxGroupSimilarity = 0.0f;
 
     @Override
@@ -56,7 +67,9 @@ public class PhotoGroup extends GridMedia {
         if (removed) {
             photo.setGroup(null);
             // Remove from selected takes (allow 0 selections)
-            selectedTakes.remove(photo);
+            if (selectedTakes.remove(photo)) {
+                fireSelectionChanged();
+            }
         }
 
         return removed;
@@ -76,14 +89,19 @@ public class PhotoGroup extends GridMedia {
     }
 
     public boolean addSelectedTake(Photo photo) {
-        if (photos.contains(photo)) {
-            return selectedTakes.add(photo);
+        if (photos.contains(photo) && selectedTakes.add(photo)) {
+            fireSelectionChanged();
+            return true;
         }
         return false;
     }
 
     public boolean removeSelectedTake(Photo photo) {
-        return selectedTakes.remove(photo);
+        if (selectedTakes.remove(photo)) {
+            fireSelectionChanged();
+            return true;
+        }
+        return false;
     }
 
     public void toggleSelection(Photo photo) {
@@ -95,7 +113,24 @@ public class PhotoGroup extends GridMedia {
     }
 
     public void clearSelections() {
-        selectedTakes.clear();
+        if (!selectedTakes.isEmpty()) {
+            selectedTakes.clear();
+            fireSelectionChanged();
+        }
+    }
+
+    public void addSelectionListener(SelectionListener listener) {
+        selectionListeners.add(listener);
+    }
+
+    public void removeSelectionListener(SelectionListener listener) {
+        selectionListeners.remove(listener);
+    }
+
+    private void fireSelectionChanged() {
+        for (SelectionListener listener : selectionListeners) {
+            listener.onSelectionChanged(this);
+        }
     }
 
     public float getMaxGroupSimilarity() {
@@ -114,11 +149,7 @@ public class PhotoGroup extends GridMedia {
                 new com.penguinpush.cullergrader.expression.SelectionStrategyManager();
             com.penguinpush.cullergrader.expression.ASTNode ast = manager.compileExpression(strategy);
 
-            for (Photo photo : photos) {
-                if (manager.shouldSelectPhoto(ast, photo, this, selectedTakes)) {
-                    selectedTakes.add(photo);
-                }
-            }
+            addSelectedRows(manager.evaluateGroup(ast, com.penguinpush.cullergrader.expression.GroupMetrics.fromGroup(this)));
 
         } catch (Exception e) {
             // Log error and fallback to first photo
@@ -148,11 +179,7 @@ public class PhotoGroup extends GridMedia {
         }
 
         try {
-            for (Photo photo : photos) {
-                if (manager.shouldSelectPhoto(compiledStrategy, photo, this, selectedTakes)) {
-                    selectedTakes.add(photo);
-                }
-            }
+            addSelectedRows(manager.evaluateGroup(compiledStrategy, com.penguinpush.cullergrader.expression.GroupMetrics.fromGroup(this)));
 
         } catch (Exception e) {
             logMessage("Evaluation error: " + e.getMessage() + ", using fallback");
@@ -161,4 +188,10 @@ public class PhotoGroup extends GridMedia {
             }
         }
     }
+
+    private void addSelectedRows(BitSet selection) {
+        for (int row = selection.nextSetBit(0); row >= 0; row = selection.nextSetBit(row + 1)) {
+            selectedTakes.add(photos.get(row));
+        }
+    }
 }
@@ -0,0 +1,117 @@
+package com.penguinpush.cullergrader.media;
+
+import java.awt.image.BufferedImage;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the grid thumbnails photos hold on to, so they count towards the MemoryBudget and can be shed oldest first.
+ *
+ * Thumbnails stay soft references; ones the garbage collector clears on its own are noticed through a reference queue.
+ * A thumbnail that is the preview cache's own image (in heap storage, or a pooled decoded preview) isn't tracked:
+ * the previews tier already counts it, and clearing the photo's reference wouldn't free it.
+ */
+class PhotoThumbnails implements MemoryBudget.Cache {
+    private static final PhotoThumbnails instance = new PhotoThumbnails();
+
+    private final LinkedHashMap<Photo, ThumbnailRef> held = new LinkedHashMap<>();  // oldest first
+    private final ReferenceQueue<BufferedImage> cleared = new ReferenceQueue<>();
+    private final AtomicLong heapBytes = new AtomicLong(0);
+
+    static {
+        MemoryBudget.register(MemoryBudget.Tier.THUMBNAILS, instance);
+    }
+
+    private static class ThumbnailRef extends SoftReference<BufferedImage> {
+        final Photo photo;
+        final long weight;
+
+        ThumbnailRef(Photo photo, BufferedImage thumbnail, ReferenceQueue<BufferedImage> queue) {
+            super(thumbnail, queue);
+            this.photo = photo;
+            this.weight = PreviewCache.weigh(thumbnail);
+        }
+    }
+
+    private PhotoThumbnails() {
+    }
+
+    /**
+     * Wraps a photo's new thumbnail in a soft reference, replacing any it held before. The reference is tracked
+     * unless the thumbnail is the preview cache's own image.
+     */
+    static SoftReference<BufferedImage> track(Photo photo, BufferedImage thumbnail) {
+        if (PhotoUtils.isCachedPreview(photo, thumbnail)) {
+            synchronized (instance) {
+                instance.expungeCleared();
+                ThumbnailRef previous = instance.held.remove(photo);
+                if (previous != null) {
+                    instance.heapBytes.addAndGet(-previous.weight);
+                }
+            }
+            return new SoftReference<>(thumbnail);
+        }
+
+        ThumbnailRef ref = new ThumbnailRef(photo, thumbnail, instance.cleared);
+        synchronized (instance) {
+            instance.expungeCleared();
+            ThumbnailRef previous = instance.held.put(photo, ref);
+            instance.heapBytes.addAndGet(ref.weight - (previous == null ? 0 : previous.weight));
+        }
+        MemoryBudget.rebalance();
+        return ref;
+    }
+
+    /**
+     * Forgets every tracked thumbnail, e.g. when a new folder replaces the current photos.
+     */
+    static void clear() {
+        synchronized (instance) {
+            for (ThumbnailRef ref : instance.held.values()) {
+                ref.clear();
+            }
+            instance.held.clear();
+            instance.heapBytes.set(0);
+        }
+    }
+
+    @Override
+    public long getHeapBytes() {
+        return heapBytes.get();
+    }
+
+    @Override
+    public synchronized long shed(long bytes) {
+        expungeCleared();
+        long freed = 0;
+        Iterator<ThumbnailRef> oldest = held.values().iterator();
+        while (freed < bytes && oldest.hasNext()) {
+            ThumbnailRef ref = oldest.next();
+            BufferedImage thumbnail = ref.get();
+            oldest.remove();
+            ref.clear();  // the photo regenerates it on its next paint
+            heapBytes.addAndGet(-ref.weight);
+            // Only freed if the preview cache didn't take the same image meanwhile
+            if (thumbnail != null && !PhotoUtils.isCachedPreview(ref.photo, thumbnail)) {
+                freed += ref.weight;
+            }
+        }
+        return freed;
+    }
+
+    // Called with the monitor held
+    private void expungeCleared() {
+        Reference<? extends BufferedImage> polled;
+        while ((polled = cleared.poll()) != null) {
+            ThumbnailRef ref = (ThumbnailRef) polled;
+            if (held.get(ref.photo) == ref) {
+                held.remove(ref.photo);
+                heapBytes.addAndGet(-ref.weight);
+            }
+        }
+    }
+}
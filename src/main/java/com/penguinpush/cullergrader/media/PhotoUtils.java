@@ -10,75 +10,39 @@ import com.drew.metadata.Metadata;
 import com.drew.metadata.exif.ExifIFD0Directory;
 import com.drew.metadata.exif.ExifSubIFDDirectory;
 import com.drew.metadata.exif.ExifThumbnailDirectory;
+import java.awt.Dimension;
 import java.awt.Graphics2D;
-import java.awt.Image;
 import java.awt.RenderingHints;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.imageio.*;
 import javax.imageio.stream.ImageInputStream;
-import javax.swing.*;
 
 public class PhotoUtils {
 
-    // Simple fill-until-full cache for all image previews (strong references to avoid GC under memory pressure)
+    // Size-bounded LRU cache for all image previews (strong references, evicted by recency once full)
     // Caches SCALED previews at display resolution (240×160 default)
-    // Cache size configured via IMAGE_PREVIEW_CACHE_SIZE_MB in config.json (default 1024 MB)
-    private static final long MAX_CACHE_SIZE_BYTES = AppConstants.IMAGE_PREVIEW_CACHE_SIZE_MB * 1024L * 1024L;
-    private static long currentCacheSizeBytes = 0;
-
-    // Hit/miss tracking for monitoring cache effectiveness
-    private static final AtomicLong cacheHits = new AtomicLong(0);
-    private static final AtomicLong cacheMisses = new AtomicLong(0);
-
-    // Simple fill-until-full cache with no eviction
-    private static final Map<String, ImagePreviewEntry> imagePreviewCache =
-        Collections.synchronizedMap(new LinkedHashMap<String, ImagePreviewEntry>(16, 0.75f, false));
-
-    private static class ImagePreviewEntry {
-        final long lastModified;
-        final BufferedImage preview;  // Strong reference (no SoftReference)
-        final long sizeBytes;
-
-        ImagePreviewEntry(long lastModified, BufferedImage preview) {
-            this.lastModified = lastModified;
-            this.preview = preview;
-            // Calculate actual byte size: width × height × bytes per pixel
-            // TYPE_INT_RGB = 4 bytes per pixel, TYPE_3BYTE_BGR = 3 bytes per pixel, etc.
-            int bytesPerPixel;
-            switch (preview.getType()) {
-                case BufferedImage.TYPE_INT_RGB:
-                case BufferedImage.TYPE_INT_ARGB:
-                case BufferedImage.TYPE_INT_ARGB_PRE:
-                case BufferedImage.TYPE_INT_BGR:
-                    bytesPerPixel = 4;
-                    break;
-                case BufferedImage.TYPE_3BYTE_BGR:
-                    bytesPerPixel = 3;
-                    break;
-                case BufferedImage.TYPE_USHORT_565_RGB:
-                case BufferedImage.TYPE_USHORT_555_RGB:
-                case BufferedImage.TYPE_USHORT_GRAY:
-                    bytesPerPixel = 2;
-                    break;
-                case BufferedImage.TYPE_BYTE_GRAY:
-                case BufferedImage.TYPE_BYTE_BINARY:
-                case BufferedImage.TYPE_BYTE_INDEXED:
-                    bytesPerPixel = 1;
-                    break;
-                default:
-                    // For custom or unknown types, estimate 4 bytes per pixel
-                    bytesPerPixel = 4;
-            }
-            this.sizeBytes = preview.getWidth() * preview.getHeight() * bytesPerPixel;
-        }
+    // Cache size configured via IMAGE_PREVIEW_CACHE_SIZE_MB in config.json (default 2048 MB)
+    // PREVIEW_CACHE_STORAGE "compressed" keeps encoded previews instead, roughly 10x as many for the same budget
+    private static final PreviewCache imagePreviewCache = new PreviewCache(
+        AppConstants.IMAGE_PREVIEW_CACHE_SIZE_MB * 1024L * 1024L,
+        PreviewCache.Storage.fromConfig(AppConstants.PREVIEW_CACHE_STORAGE),
+        AppConstants.PREVIEW_DECODED_POOL_SIZE);
+
+    static {
+        MemoryBudget.register(MemoryBudget.Tier.PREVIEWS, imagePreviewCache);
     }
 
+    // Persistent second tier under the memory cache, so previews survive restarts (GUI mode only)
+    private static PreviewDiskCache diskCache;
+    private static boolean diskCacheUnavailable = false;
+    private static final AtomicLong diskCacheHits = new AtomicLong(0);
+
     private static boolean isHashSizeRequest(int targetWidth, int targetHeight) {
         return targetWidth == AppConstants.HASHED_WIDTH
             && targetHeight == AppConstants.HASHED_HEIGHT;
@@ -97,8 +61,20 @@ public class PhotoUtils {
         return 1; // Default: no rotation needed
     }
 
+    // Largest decoder subsampling factor that still leaves the image at least as large as it is drawn
+    // when fitted into the target box; the box is in display orientation, the source dimensions are as stored
+    public static int getSubsampling(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight, int orientation) {
+        if (orientation >= 5 && orientation <= 8) {
+            int swap = targetWidth;
+            targetWidth = targetHeight;
+            targetHeight = swap;
+        }
+        double factor = Math.max((double) sourceWidth / targetWidth, (double) sourceHeight / targetHeight);
+        return Math.max(1, (int) factor);
+    }
+
     public static BufferedImage rotateImageByExif(BufferedImage image, int orientation) {
-        if (orientation == 1 || image == null) {
+        if (orientation < 2 || orientation > 8 || image == null) {
             return image; // No rotation needed
         }
 
@@ -123,6 +99,14 @@ public class PhotoUtils {
         g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
         g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
+        g2d.drawImage(image, getExifTransform(orientation, width, height), null);
+        g2d.dispose();
+
+        return rotatedImage;
+    }
+
+    // Maps stored pixel coordinates of a width x height image to its upright (display) coordinates
+    public static AffineTransform getExifTransform(int orientation, int width, int height) {
         AffineTransform transform = new AffineTransform();
 
         switch (orientation) {
@@ -138,9 +122,9 @@ public class PhotoUtils {
                 transform.scale(1.0, -1.0);
                 transform.translate(0, -height);
                 break;
-            case 5: // Flip horizontally and rotate 90 CW
+            case 5: // Flip horizontally and rotate 90 CW (transpose)
                 transform.rotate(Math.PI / 2);
-                transform.scale(-1.0, 1.0);
+                transform.scale(1.0, -1.0);
                 break;
             case 6: // Rotate 90 CW
                 transform.translate(height, 0);
@@ -157,92 +141,174 @@ public class PhotoUtils {
                 transform.rotate(3 * Math.PI / 2);
                 break;
             default:
-                g2d.dispose();
-                return image;
+                break;
         }
 
-        g2d.drawImage(image, transform, null);
-        g2d.dispose();
+        return transform;
+    }
 
-        return rotatedImage;
+    // Reads only the image header; the size is as stored, before EXIF rotation. Null if unreadable, or a RAW file
+    public static Dimension readImageSize(File file) {
+        if (isRawFile(file)) {
+            return null;  // ImageIO would read the TIFF thumbnail in IFD0, not the photo
+        }
+        try (ImageInputStream input = ImageDecoder.openStream(file)) {
+            ImageReader reader = ImageDecoder.acquireReader(input);
+            if (reader == null) {
+                return null;
+            }
+            try {
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                ImageDecoder.releaseReader(reader);
+            }
+        } catch (Exception e) {
+            return null;
+        }
     }
 
-    private static BufferedImage loadImage(File file) throws Exception {
+    // Decodes a photo as stored, to be scaled down into a target box (display orientation). For RAW files that's
+    // the smallest embedded preview that covers the box, not the full-size one
+    private static BufferedImage loadImage(File file, int targetWidth, int targetHeight, int orientation) throws Exception {
         if (isRawFile(file)) {
-            BufferedImage fullImage = extractRawPreview(file);
+            RawPreviews previews = RawPreviews.scan(file);
+            RawPreviews.Preview preview = previews.select(targetWidth, targetHeight, orientation);
+            // Formats without a TIFF structure (CR3, CRW) fall back to the EXIF thumbnail
+            BufferedImage fullImage = preview != null
+                ? ImageDecoder.read(RawPreviews.read(file, preview), true)
+                : extractRawPreview(file);
             if (fullImage == null) {
                 logToConsoleOnly("Skipping RAW file without embedded preview: " + file.getName());
             }
             return fullImage;
         } else {
-            return ImageIO.read(file);
+            return ImageDecoder.read(file, true);
         }
     }
 
+    // Returns a decode buffer for reuse, unless it's one of the images being kept
+    private static void recycleUnlessKept(BufferedImage scratch, BufferedImage... kept) {
+        for (BufferedImage image : kept) {
+            if (image == scratch) {
+                return;
+            }
+        }
+        ImageDecoder.recycle(scratch);
+    }
+
     public static BufferedImage readLowResImage(File file, int targetWidth, int targetHeight, ExecutionMode mode) throws Exception {
         String path = file.getAbsolutePath();
         long lastModified = file.lastModified();
 
         boolean isHashRequest = isHashSizeRequest(targetWidth, targetHeight);
 
-        // Check cache - but skip for hash requests to avoid double-scaling
-        ImagePreviewEntry entry = imagePreviewCache.get(path);
-        if (entry != null && entry.lastModified == lastModified && !isHashRequest) {
-            cacheHits.incrementAndGet();
-            logToConsoleOnly("Retrieved cached preview: " + file.getName());
-            return scalePreviewIfNeeded(entry.preview, targetWidth, targetHeight);
-        }
-
         // CLI mode: Skip all caching
         if (!mode.shouldCacheThumbnails()) {
-            BufferedImage fullImage = loadImage(file);
-            if (fullImage == null) return null;
-            // Apply EXIF rotation
             int orientation = getExifOrientation(file);
-            fullImage = rotateImageByExif(fullImage, orientation);
-            return scalePreviewIfNeeded(fullImage, targetWidth, targetHeight);
+            BufferedImage decodedImage = loadImage(file, targetWidth, targetHeight, orientation);
+            if (decodedImage == null) return null;
+            long scratchBytes = MemoryBudget.reserve(MemoryBudget.Tier.SCRATCH, PreviewCache.weigh(decodedImage));
+            BufferedImage result = null;
+            try {
+                result = scaleAndOrient(decodedImage, targetWidth, targetHeight, orientation);
+                return result;
+            } finally {
+                MemoryBudget.release(MemoryBudget.Tier.SCRATCH, scratchBytes);
+                recycleUnlessKept(decodedImage, result);
+            }
+        }
+
+        // GUI mode: Check memory, then disk, before decoding the original
+        // Hash requests skip both to avoid double-scaling, they need the original
+        if (!isHashRequest) {
+            BufferedImage cachedPreview = imagePreviewCache.get(path, lastModified);
+            if (cachedPreview != null) {
+                logToConsoleOnly("Retrieved cached preview: " + file.getName());
+                return scalePreviewIfNeeded(cachedPreview, targetWidth, targetHeight);
+            }
+
+            PreviewDiskCache disk = getDiskCache();
+            byte[] storedBytes = disk == null ? null : disk.getEncoded(path, lastModified);
+            BufferedImage storedPreview = storedBytes == null ? null : PreviewCodec.decode(storedBytes);
+            if (storedPreview != null) {
+                diskCacheHits.incrementAndGet();
+                imagePreviewCache.put(path, lastModified, storedPreview, storedBytes);
+                MemoryBudget.rebalance();
+                logToConsoleOnly("Loaded preview from disk cache: " + file.getName());
+                return scalePreviewIfNeeded(storedPreview, targetWidth, targetHeight);
+            }
         }
 
-        // GUI mode: Load original image
-        BufferedImage fullImage = loadImage(file);
-        if (fullImage == null) return null;
-        // Apply EXIF rotation
+        // Load original image, counted against the memory budget until it's scaled down; sized for the preview,
+        // which both paths below cache. EXIF orientation is applied to the scaled-down images, never the original
         int orientation = getExifOrientation(file);
-        fullImage = rotateImageByExif(fullImage, orientation);
-
-        // Hash request: Scale directly from original, but still cache preview for GUI
-        if (isHashRequest) {
-            if (entry == null) {
-                int cacheWidth = AppConstants.PREVIEW_WIDTH;
-                int cacheHeight = AppConstants.PREVIEW_HEIGHT;
-                BufferedImage cachedPreview = scalePreviewIfNeeded(fullImage, cacheWidth, cacheHeight);
-
-                ImagePreviewEntry newEntry = new ImagePreviewEntry(lastModified, cachedPreview);
-                if (currentCacheSizeBytes + newEntry.sizeBytes <= MAX_CACHE_SIZE_BYTES) {
-                    imagePreviewCache.put(path, newEntry);
-                    currentCacheSizeBytes += newEntry.sizeBytes;
-                    logToConsoleOnly("Cached preview for: " + file.getName());
+        BufferedImage decodedImage = loadImage(file, AppConstants.PREVIEW_WIDTH, AppConstants.PREVIEW_HEIGHT, orientation);
+        if (decodedImage == null) return null;
+        long scratchBytes = MemoryBudget.reserve(MemoryBudget.Tier.SCRATCH, PreviewCache.weigh(decodedImage));
+        BufferedImage cachedPreview = null;
+        BufferedImage result = null;
+        try {
+
+            // Hash request: Scale directly from original, but still cache preview for GUI
+            if (isHashRequest) {
+                if (!imagePreviewCache.contains(path, lastModified)) {
+                    int cacheWidth = AppConstants.PREVIEW_WIDTH;
+                    int cacheHeight = AppConstants.PREVIEW_HEIGHT;
+                    cachedPreview = scaleAndOrient(decodedImage, cacheWidth, cacheHeight, orientation);
+                    cachePreview(path, lastModified, cachedPreview, file);
                 }
+
+                result = scaleAndOrient(decodedImage, targetWidth, targetHeight, orientation);
+                return result;
             }
 
-            cacheMisses.incrementAndGet();
-            return scalePreviewIfNeeded(fullImage, targetWidth, targetHeight);
+            // Thumbnail request: Standard cache path
+            int cacheWidth = AppConstants.PREVIEW_WIDTH;
+            int cacheHeight = AppConstants.PREVIEW_HEIGHT;
+            cachedPreview = scaleAndOrient(decodedImage, cacheWidth, cacheHeight, orientation);
+            cachePreview(path, lastModified, cachedPreview, file);
+
+            result = scalePreviewIfNeeded(cachedPreview, targetWidth, targetHeight);
+            return result;
+        } finally {
+            MemoryBudget.release(MemoryBudget.Tier.SCRATCH, scratchBytes);
+            // Small originals can end up cached or returned as they are, those must not be reused
+            recycleUnlessKept(decodedImage, cachedPreview, result);
         }
+    }
 
-        // Thumbnail request: Standard cache path
-        int cacheWidth = AppConstants.PREVIEW_WIDTH;
-        int cacheHeight = AppConstants.PREVIEW_HEIGHT;
-        BufferedImage cachedPreview = scalePreviewIfNeeded(fullImage, cacheWidth, cacheHeight);
+    // Stores a freshly decoded preview in memory and on disk, encoding it at most once for both
+    private static void cachePreview(String path, long lastModified, BufferedImage preview, File file) {
+        PreviewDiskCache disk = getDiskCache();
+        byte[] encoded = null;
+        if (disk != null || imagePreviewCache.getStorage() == PreviewCache.Storage.COMPRESSED) {
+            try {
+                encoded = PreviewCodec.encode(preview);
+            } catch (IOException e) {
+                logMessage("couldn't encode preview for: " + file.getName() + " - " + e.getMessage());
+            }
+        }
 
-        ImagePreviewEntry newEntry = new ImagePreviewEntry(lastModified, cachedPreview);
-        if (currentCacheSizeBytes + newEntry.sizeBytes <= MAX_CACHE_SIZE_BYTES) {
-            imagePreviewCache.put(path, newEntry);
-            currentCacheSizeBytes += newEntry.sizeBytes;
-            logToConsoleOnly("Cached preview for: " + file.getName());
+        imagePreviewCache.put(path, lastModified, preview, encoded);
+        MemoryBudget.rebalance();
+        logToConsoleOnly("Cached preview for: " + file.getName());
+        if (disk != null && encoded != null) {
+            disk.put(path, lastModified, encoded);
         }
+    }
 
-        cacheMisses.incrementAndGet();
-        return scalePreviewIfNeeded(cachedPreview, targetWidth, targetHeight);
+    // Opens the disk cache on first use; if it can't be opened, previews are only cached in memory
+    private static synchronized PreviewDiskCache getDiskCache() {
+        if (diskCache == null && !diskCacheUnavailable && AppConstants.PREVIEW_DISK_CACHE_ENABLED) {
+            try {
+                diskCache = new PreviewDiskCache(new File(AppConstants.PREVIEW_CACHE_FILE),
+                        AppConstants.PREVIEW_WIDTH, AppConstants.PREVIEW_HEIGHT, AppConstants.PREVIEW_CACHE_MAX_MB * 1024L * 1024L);
+            } catch (IOException e) {
+                diskCacheUnavailable = true;
+                logMessage("couldn't open preview disk cache, previews will only be cached in memory: " + e.getMessage());
+            }
+        }
+        return diskCache;
     }
 
     public static boolean isImageFile(File file) {
@@ -278,15 +344,38 @@ public class PhotoUtils {
     }
 
     /**
-     * Extracts embedded JPEG preview from a RAW file.
+     * Extracts the EXIF thumbnail from a RAW file, for formats RawPreviews can't list previews of.
      *
-     * Uses metadata-extractor to locate the thumbnail, then reads the bytes directly.
      * Caching is handled by readLowResImage(), not here.
      *
      * @param file The RAW file to extract preview from
-     * @return BufferedImage of the embedded JPEG preview, or null if no preview found
+     * @return BufferedImage of the embedded JPEG preview as stored (not rotated), or null if no preview found
      */
     private static BufferedImage extractRawPreview(File file) {
+        byte[] thumbnailBytes = readExifThumbnail(file);
+        if (thumbnailBytes == null) {
+            return null;
+        }
+        try {
+            // Decode the JPEG thumbnail into a reusable buffer, readLowResImage recycles it.
+            // Left as stored: readLowResImage applies the EXIF orientation once it has scaled it down
+            return ImageDecoder.read(thumbnailBytes, true);
+        } catch (IOException e) {
+            logToConsoleOnly("Failed to decode preview from RAW file: " + file.getName() + " - " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads the encoded EXIF thumbnail of a RAW file, the fallback preview for formats RawPreviews can't list
+     * previews of (CR3, CRW).
+     *
+     * Uses metadata-extractor to locate the thumbnail, then reads the bytes directly.
+     *
+     * @param file The RAW file to read the thumbnail from
+     * @return The embedded JPEG's bytes, or null if there is none
+     */
+    public static byte[] readExifThumbnail(File file) {
         try {
             Metadata metadata = ImageMetadataReader.readMetadata(file);
             ExifThumbnailDirectory thumbnailDir = metadata.getFirstDirectoryOfType(ExifThumbnailDirectory.class);
@@ -313,18 +402,7 @@ public class PhotoUtils {
                 raf.seek(adjustedOffset);
                 raf.readFully(thumbnailBytes);
             }
-
-            // Decode the JPEG thumbnail
-            ByteArrayInputStream bais = new ByteArrayInputStream(thumbnailBytes);
-            BufferedImage preview = ImageIO.read(bais);
-
-            // Apply EXIF rotation to RAW preview
-            if (preview != null) {
-                int orientation = getExifOrientation(file);
-                preview = rotateImageByExif(preview, orientation);
-            }
-
-            return preview;
+            return thumbnailBytes;
 
         } catch (Exception e) {
             logToConsoleOnly("Failed to extract preview from RAW file: " + file.getName() + " - " + e.getMessage());
@@ -332,6 +410,16 @@ public class PhotoUtils {
         }
     }
 
+    // Scales a stored (unrotated) image down for a target box in display orientation, then rotates the small
+    // result upright, so the full-size image is never copied just to turn it. Same result as rotating first
+    private static BufferedImage scaleAndOrient(BufferedImage image, int targetWidth, int targetHeight, int orientation) {
+        boolean swapsAxes = orientation >= 5 && orientation <= 8;
+        BufferedImage scaled = scalePreviewIfNeeded(image,
+                swapsAxes ? targetHeight : targetWidth,
+                swapsAxes ? targetWidth : targetHeight);
+        return rotateImageByExif(scaled, orientation);
+    }
+
     private static BufferedImage scalePreviewIfNeeded(BufferedImage preview, int targetWidth, int targetHeight) {
         int previewWidth = preview.getWidth();
         int previewHeight = preview.getHeight();
@@ -377,11 +465,6 @@ public class PhotoUtils {
         return file.lastModified(); // fallback
     }
 
-    public static ImageIcon getScaledIcon(BufferedImage img, int width, int height) {
-        Image scaled = img.getScaledInstance(width, height, Image.SCALE_FAST);
-        return new ImageIcon(scaled);
-    }
-    
     public static float[] rgbToLab(int red, int green, int blue) {
         // convoluted algorithm to convert rgb color space to lab
         
@@ -455,25 +538,46 @@ public class PhotoUtils {
      * Returns the current cache size in bytes.
      */
     public static long getCurrentCacheSizeBytes() {
-        return currentCacheSizeBytes;
+        return imagePreviewCache.getWeightBytes();
     }
 
     /**
      * Returns the maximum image preview cache size in bytes.
      */
     public static long getImagePreviewCacheMaxSizeBytes() {
-        return MAX_CACHE_SIZE_BYTES;
+        return imagePreviewCache.getMaxWeightBytes();
+    }
+
+    /**
+     * Returns the in-memory preview cache, for its hit, miss and eviction counters.
+     */
+    public static PreviewCache getImagePreviewCache() {
+        return imagePreviewCache;
+    }
+
+    /**
+     * Whether an image is the in-memory preview cache's own copy of a photo's preview, so already counted there.
+     */
+    static boolean isCachedPreview(Photo photo, BufferedImage image) {
+        return imagePreviewCache.holds(photo.getPath(), image);
+    }
+
+    /**
+     * Returns how many previews were served from the disk cache instead of decoding the original.
+     */
+    public static long getDiskCacheHits() {
+        return diskCacheHits.get();
     }
 
     /**
-     * Clears all cached image previews.
+     * Clears all cached image previews, and the thumbnails and grid icons made from them.
      * Useful for testing or freeing memory.
      */
     public static void clearImagePreviewCache() {
-        int size = imagePreviewCache.size();
+        logMessage("Cleared image preview cache (" + imagePreviewCache + "), memory: " + MemoryBudget.describeUsage());
         imagePreviewCache.clear();
-        currentCacheSizeBytes = 0;
-        logMessage("Cleared image preview cache (" + size + " entries)");
+        PhotoThumbnails.clear();
+        GridIcons.clear();
     }
 
 }
@@ -0,0 +1,448 @@
+package com.penguinpush.cullergrader.media;
+
+import static com.penguinpush.cullergrader.utils.Logger.logMessage;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded in-memory preview cache with least-recently-used eviction.
+ *
+ * Entries are weighed by the memory they hold; once the budget is reached the least recently used previews are
+ * evicted to make room, so hot previews stay cached on folders larger than the budget. The map is guarded by
+ * the cache's monitor, the weight and counters are atomics so they can be read without locking.
+ *
+ * Previews are held as decoded images (HEAP), as encoded bytes (COMPRESSED), or as raw pixels outside the Java
+ * heap (OFF_HEAP). Compressed previews fit roughly ten times as many in the same budget; off-heap previews keep
+ * the budget out of the heap entirely. Both are turned back into images on demand, into a small pool of recently
+ * used images.
+ *
+ * The cache also counts towards the shared MemoryBudget, which can ask it to shed previews before its own budget
+ * is reached.
+ */
+public class PreviewCache implements MemoryBudget.Cache {
+
+    public enum Storage {
+        HEAP,
+        COMPRESSED,
+        OFF_HEAP;
+
+        /**
+         * Parses a config value, ignoring case and separators ("offheap", "off-heap"). Unknown values fall back to HEAP.
+         */
+        public static Storage fromConfig(String value) {
+            String normalized = value == null ? "" : value.replaceAll("[^A-Za-z]", "");
+            for (Storage storage : values()) {
+                if (storage.name().replace("_", "").equalsIgnoreCase(normalized)) {
+                    return storage;
+                }
+            }
+            logMessage("unknown preview cache storage: " + value + ", using heap");
+            return HEAP;
+        }
+    }
+
+    private final long maxWeightBytes;
+    private final Storage storage;
+    private final int decodedPoolSize;
+    private final OffHeapPreviewStore offHeapStore;  // only for OFF_HEAP storage
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);  // access order
+    private final LinkedHashMap<String, BufferedImage> decodedPool = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong weightBytes = new AtomicLong(0);
+    private final AtomicLong poolWeightBytes = new AtomicLong(0);
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+    private final AtomicLong decodes = new AtomicLong(0);
+
+    private abstract static class Entry {
+        final long lastModified;
+        final long weight;
+
+        Entry(long lastModified, long weight) {
+            this.lastModified = lastModified;
+            this.weight = weight;
+        }
+
+        abstract BufferedImage load();
+
+        // Whether load() may run without the monitor, i.e. the entry's data can't be reused concurrently
+        boolean loadsOutsideLock() {
+            return true;
+        }
+
+        // Gives back any memory held outside the entry itself, called with the monitor held once it's removed
+        void release() {
+        }
+    }
+
+    private static class HeapEntry extends Entry {
+        final BufferedImage preview;
+
+        HeapEntry(long lastModified, BufferedImage preview) {
+            super(lastModified, weigh(preview));
+            this.preview = preview;
+        }
+
+        @Override
+        BufferedImage load() {
+            return preview;
+        }
+    }
+
+    private static class CompressedEntry extends Entry {
+        final byte[] encoded;
+
+        CompressedEntry(long lastModified, byte[] encoded) {
+            super(lastModified, encoded.length);
+            this.encoded = encoded;
+        }
+
+        @Override
+        BufferedImage load() {
+            return PreviewCodec.decode(encoded);
+        }
+    }
+
+    private class OffHeapEntry extends Entry {
+        final int[] chunks;
+        final int width;
+        final int height;
+        final boolean alpha;
+
+        OffHeapEntry(long lastModified, BufferedImage preview, int[] chunks) {
+            super(lastModified, (long) chunks.length * OffHeapPreviewStore.CHUNK_SIZE);
+            this.chunks = chunks;
+            this.width = preview.getWidth();
+            this.height = preview.getHeight();
+            this.alpha = preview.getColorModel().hasAlpha();
+        }
+
+        @Override
+        BufferedImage load() {
+            return offHeapStore.load(chunks, width, height, alpha);
+        }
+
+        @Override
+        boolean loadsOutsideLock() {
+            return false;  // freed chunks are handed straight to the next preview
+        }
+
+        @Override
+        void release() {
+            offHeapStore.free(chunks);
+        }
+    }
+
+    public PreviewCache(long maxWeightBytes) {
+        this(maxWeightBytes, Storage.HEAP, 0);
+    }
+
+    /**
+     * @param maxWeightBytes Memory budget for stored previews
+     * @param storage How previews are held
+     * @param decodedPoolSize Number of decoded previews kept for COMPRESSED and OFF_HEAP storage, outside the budget
+     */
+    public PreviewCache(long maxWeightBytes, Storage storage, int decodedPoolSize) {
+        this.maxWeightBytes = maxWeightBytes;
+        this.storage = storage;
+        this.decodedPoolSize = decodedPoolSize;
+        this.offHeapStore = storage == Storage.OFF_HEAP ? new OffHeapPreviewStore(maxWeightBytes) : null;
+    }
+
+    /**
+     * Returns the cached preview for this version of a file, or null on a miss.
+     * A preview cached for an older version of the file is dropped.
+     */
+    public BufferedImage get(String path, long lastModified) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(path);
+            if (entry != null && entry.lastModified != lastModified) {
+                remove(path, entry);
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            if (entry instanceof HeapEntry) {
+                return ((HeapEntry) entry).preview;
+            }
+
+            BufferedImage decoded = decodedPool.get(path);
+            if (decoded != null) {
+                return decoded;
+            }
+
+            if (!entry.loadsOutsideLock()) {
+                decoded = entry.load();
+                decodes.incrementAndGet();
+                addToPool(path, decoded);
+                return decoded;
+            }
+        }
+
+        // Decode outside the lock so other lookups aren't held up
+        BufferedImage decoded = entry.load();
+        decodes.incrementAndGet();
+        if (decoded != null) {
+            synchronized (this) {
+                // Only pool it if the entry wasn't replaced meanwhile
+                if (entries.get(path) == entry) {
+                    addToPool(path, decoded);
+                }
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * Whether a preview for this version of a file is cached. Doesn't count as a hit or miss, or refresh recency.
+     */
+    public synchronized boolean contains(String path, long lastModified) {
+        Entry entry = entries.get(path);
+        return entry != null && entry.lastModified == lastModified;
+    }
+
+    /**
+     * Whether the cache itself holds this image for a path, as a HEAP preview or in the decoded pool.
+     * Doesn't count as a hit or miss.
+     */
+    synchronized boolean holds(String path, BufferedImage image) {
+        Entry entry = entries.get(path);
+        return (entry instanceof HeapEntry && ((HeapEntry) entry).preview == image) || decodedPool.get(path) == image;
+    }
+
+    /**
+     * Caches a preview, evicting least recently used previews until it fits.
+     * Previews larger than the whole budget are not cached.
+     */
+    public void put(String path, long lastModified, BufferedImage preview) {
+        put(path, lastModified, preview, null);
+    }
+
+    /**
+     * Caches a preview, reusing its encoded bytes (see PreviewCodec) for COMPRESSED storage when available.
+     */
+    public void put(String path, long lastModified, BufferedImage preview, byte[] encoded) {
+        Entry entry = null;
+        long weight;
+        if (storage == Storage.OFF_HEAP) {
+            weight = OffHeapPreviewStore.weigh(preview);  // memory is taken once there's room for it
+        } else if (storage == Storage.COMPRESSED) {
+            if (encoded == null) {
+                try {
+                    encoded = PreviewCodec.encode(preview);
+                } catch (IOException e) {
+                    logMessage("couldn't compress preview for: " + path + " - " + e.getMessage());
+                    return;
+                }
+            }
+            entry = new CompressedEntry(lastModified, encoded);
+            weight = entry.weight;
+        } else {
+            entry = new HeapEntry(lastModified, preview);
+            weight = entry.weight;
+        }
+
+        if (weight > maxWeightBytes) {
+            return;
+        }
+
+        synchronized (this) {
+            Entry previous = entries.get(path);
+            if (previous != null) {
+                remove(path, previous);
+            }
+
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (weightBytes.get() + weight > maxWeightBytes && eldest.hasNext()) {
+                Map.Entry<String, Entry> evicted = eldest.next();
+                eldest.remove();
+                release(evicted.getKey(), evicted.getValue());
+                evictions.incrementAndGet();
+            }
+
+            if (storage == Storage.OFF_HEAP) {
+                int[] chunks = offHeapStore.store(preview);
+                if (chunks == null) {
+                    return;  // out of direct memory, already logged
+                }
+                entry = new OffHeapEntry(lastModified, preview, chunks);
+            }
+
+            entries.put(path, entry);
+            weightBytes.addAndGet(entry.weight);
+
+            // Just decoded, and most likely about to be displayed
+            if (storage != Storage.HEAP) {
+                addToPool(path, preview);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        decodedPool.clear();
+        weightBytes.set(0);
+        poolWeightBytes.set(0);
+        if (offHeapStore != null) {
+            offHeapStore.clear();
+        }
+    }
+
+    /**
+     * Heap held by the cache: stored previews, except OFF_HEAP ones, plus the decoded pool.
+     */
+    @Override
+    public long getHeapBytes() {
+        return (storage == Storage.OFF_HEAP ? 0 : weightBytes.get()) + poolWeightBytes.get();
+    }
+
+    /**
+     * Frees heap for the memory budget: decoded pool images first, as their previews stay cached, then the least
+     * recently used previews.
+     */
+    @Override
+    public synchronized long shed(long bytes) {
+        long freed = 0;
+
+        Iterator<Map.Entry<String, BufferedImage>> pooled = decodedPool.entrySet().iterator();
+        while (freed < bytes && pooled.hasNext()) {
+            long weight = weigh(pooled.next().getValue());
+            pooled.remove();
+            poolWeightBytes.addAndGet(-weight);
+            freed += weight;
+        }
+
+        if (storage != Storage.OFF_HEAP) {
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (freed < bytes && eldest.hasNext()) {
+                Map.Entry<String, Entry> evicted = eldest.next();
+                eldest.remove();
+                freed += release(evicted.getKey(), evicted.getValue());
+                evictions.incrementAndGet();
+            }
+        }
+        return freed;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public long getWeightBytes() {
+        return weightBytes.get();
+    }
+
+    public long getMaxWeightBytes() {
+        return maxWeightBytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Number of times a COMPRESSED or OFF_HEAP preview had to be rebuilt because it wasn't in the decoded pool.
+     */
+    public long getDecodes() {
+        return decodes.get();
+    }
+
+    @Override
+    public String toString() {
+        String summary = size() + " entries, " + (getWeightBytes() / (1024 * 1024)) + "/" + (maxWeightBytes / (1024 * 1024)) + " MB, "
+            + getHits() + " hits, " + getMisses() + " misses, " + getEvictions() + " evictions";
+        if (storage != Storage.HEAP) {
+            summary += ", " + getDecodes() + " decodes";
+        }
+        return summary;
+    }
+
+    // Called with the monitor held
+    private void remove(String path, Entry entry) {
+        entries.remove(path);
+        release(path, entry);
+    }
+
+    // Accounts for an entry already taken out of the map, returning the heap freed; called with the monitor held
+    private long release(String path, Entry entry) {
+        long freed = storage == Storage.OFF_HEAP ? 0 : entry.weight;
+        BufferedImage pooled = decodedPool.remove(path);
+        if (pooled != null) {
+            long pooledWeight = weigh(pooled);
+            poolWeightBytes.addAndGet(-pooledWeight);
+            freed += pooledWeight;
+        }
+        weightBytes.addAndGet(-entry.weight);
+        entry.release();
+        return freed;
+    }
+
+    // Called with the monitor held
+    private void addToPool(String path, BufferedImage decoded) {
+        if (decodedPoolSize <= 0) {
+            return;
+        }
+        BufferedImage previous = decodedPool.put(path, decoded);
+        poolWeightBytes.addAndGet(weigh(decoded) - (previous == null ? 0 : weigh(previous)));
+        Iterator<BufferedImage> eldest = decodedPool.values().iterator();
+        while (decodedPool.size() > decodedPoolSize && eldest.hasNext()) {
+            poolWeightBytes.addAndGet(-weigh(eldest.next()));
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Approximate memory held by an image's pixel data: width × height × bytes per pixel.
+     */
+    public static long weigh(BufferedImage image) {
+        // TYPE_INT_RGB = 4 bytes per pixel, TYPE_3BYTE_BGR = 3 bytes per pixel, etc.
+        int bytesPerPixel;
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_ARGB_PRE:
+            case BufferedImage.TYPE_INT_BGR:
+                bytesPerPixel = 4;
+                break;
+            case BufferedImage.TYPE_3BYTE_BGR:
+                bytesPerPixel = 3;
+                break;
+            case BufferedImage.TYPE_USHORT_565_RGB:
+            case BufferedImage.TYPE_USHORT_555_RGB:
+            case BufferedImage.TYPE_USHORT_GRAY:
+                bytesPerPixel = 2;
+                break;
+            case BufferedImage.TYPE_BYTE_GRAY:
+            case BufferedImage.TYPE_BYTE_BINARY:
+            case BufferedImage.TYPE_BYTE_INDEXED:
+                bytesPerPixel = 1;
+                break;
+            default:
+                // For custom or unknown types, estimate 4 bytes per pixel
+                bytesPerPixel = 4;
+        }
+        return (long) image.getWidth() * image.getHeight() * bytesPerPixel;
+    }
+}
@@ -0,0 +1,55 @@
+package com.penguinpush.cullergrader.media;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Encodes previews for compact storage: high quality JPEG, or PNG for previews with transparency.
+ * Shared by the disk cache and the compressed in-memory cache, so a preview is only encoded once.
+ * Encoding goes through an in-memory stream, never ImageIO's temp file cache, as previews are small.
+ */
+class PreviewCodec {
+    private static final float JPEG_QUALITY = 0.9f;
+
+    private PreviewCodec() {
+    }
+
+    static byte[] encode(BufferedImage preview) throws IOException {
+        if (preview.getColorModel().hasAlpha()) {
+            // JPEG can't hold transparency, keep these lossless
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (ImageOutputStream stream = new MemoryCacheImageOutputStream(output)) {
+                ImageIO.write(preview, "png", stream);
+            }
+            return output.toByteArray();
+        }
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = new MemoryCacheImageOutputStream(output)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.write(null, new IIOImage(preview, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return output.toByteArray();
+    }
+
+    static BufferedImage decode(byte[] bytes) {
+        try {
+            return ImageDecoder.read(bytes, false);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
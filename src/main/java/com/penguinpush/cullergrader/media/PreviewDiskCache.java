@@ -0,0 +1,303 @@
+package com.penguinpush.cullergrader.media;
+
+import static com.penguinpush.cullergrader.utils.Logger.logMessage;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persistent preview store, used as a second tier under the in-memory preview cache.
+ *
+ * All previews live in one packed container file, encoded by PreviewCodec and keyed like the hash cache
+ * by absolute path plus last-modified time. Records are only ever appended; a newer record for the same path
+ * replaces the older one in the index, and the dead space is reclaimed by compacting when the cache is opened.
+ *
+ * The file is capped at a maximum size. When appending takes it over the cap, it is compacted down to three
+ * quarters of the cap, dropping the least recently used previews. Compaction writes the records out oldest
+ * first, so the usage order also carries over to the next session.
+ *
+ * File layout: a header (magic, version, preview width and height) followed by records of
+ * [int pathLength][path UTF-8][long lastModified][int dataLength][image data].
+ */
+public class PreviewDiskCache {
+    private static final int MAGIC = 0x43475056;  // "CGPV"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    // Compacting down to less than the cap leaves room for a run of new previews before the next compaction
+    private static final double COMPACTED_FRACTION = 0.75;
+
+    private final File file;
+    private final int previewWidth;
+    private final int previewHeight;
+    private final long maxBytes;  // 0 = unlimited
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(16, 0.75f, true);  // access order
+    private RandomAccessFile data;
+    private long liveBytes = 0;
+    private long deadBytes = 0;
+
+    private static class Entry {
+        final long lastModified;
+        final long offset;      // start of the image data
+        final int length;
+        final long recordSize;  // whole record, for dead space accounting
+
+        Entry(long lastModified, long offset, int length, long recordSize) {
+            this.lastModified = lastModified;
+            this.offset = offset;
+            this.length = length;
+            this.recordSize = recordSize;
+        }
+    }
+
+    /**
+     * Opens (or creates) the container file and indexes its records.
+     * A file written for a different preview size is discarded, as its previews would be the wrong size.
+     *
+     * @param maxBytes The most the file may grow to before old previews are dropped, 0 for no limit
+     * @throws IOException if the file can't be opened for writing
+     */
+    public PreviewDiskCache(File file, int previewWidth, int previewHeight, long maxBytes) throws IOException {
+        this.file = file;
+        this.previewWidth = previewWidth;
+        this.previewHeight = previewHeight;
+        this.maxBytes = maxBytes;
+
+        data = new RandomAccessFile(file, "rw");
+        if (!readHeader()) {
+            data.setLength(0);
+            writeHeader();
+        } else {
+            readIndex();
+            if (deadBytes > liveBytes || isOverLimit()) {
+                compact();
+            }
+        }
+        logMessage("Opened preview disk cache: " + index.size() + " previews, " + (data.length() / (1024 * 1024)) + " MB");
+    }
+
+    /**
+     * Returns the stored preview's encoded bytes, or null if there is none for this exact version of the file.
+     * Marks the preview as recently used.
+     */
+    public synchronized byte[] getEncoded(String path, long lastModified) {
+        Entry entry = index.get(path);
+        if (entry == null || entry.lastModified != lastModified) {
+            return null;
+        }
+        byte[] bytes = new byte[entry.length];
+        try {
+            data.seek(entry.offset);
+            data.readFully(bytes);
+        } catch (IOException e) {
+            logMessage("couldn't read cached preview for: " + path + " - " + e.getMessage());
+            return null;
+        }
+        return bytes;
+    }
+
+    /**
+     * Stores an already encoded preview (see PreviewCodec), replacing any older one for the same path.
+     * Compacts the file if this takes it over the size limit.
+     */
+    public void put(String path, long lastModified, byte[] bytes) {
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+
+        synchronized (this) {
+            Entry existing = index.get(path);
+            if (existing != null && existing.lastModified == lastModified) {
+                return;  // another thread stored it first
+            }
+
+            long recordStart = -1;
+            try {
+                recordStart = data.length();
+                data.seek(recordStart);
+                data.writeInt(pathBytes.length);
+                data.write(pathBytes);
+                data.writeLong(lastModified);
+                data.writeInt(bytes.length);
+                long offset = data.getFilePointer();
+                data.write(bytes);
+
+                Entry entry = new Entry(lastModified, offset, bytes.length, data.getFilePointer() - recordStart);
+                index.put(path, entry);
+                liveBytes += entry.recordSize;
+                if (existing != null) {
+                    liveBytes -= existing.recordSize;
+                    deadBytes += existing.recordSize;
+                }
+            } catch (IOException e) {
+                logMessage("couldn't store preview for: " + path + " - " + e.getMessage());
+                truncate(recordStart);
+                return;
+            }
+
+            if (isOverLimit()) {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    logMessage("couldn't compact preview disk cache: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    private boolean isOverLimit() {
+        return maxBytes > 0 && liveBytes + deadBytes > maxBytes;
+    }
+
+    public synchronized void close() {
+        try {
+            data.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Drops a partially written record, so it can't swallow the records appended after it
+    private void truncate(long length) {
+        if (length < HEADER_SIZE) {
+            return;
+        }
+        try {
+            data.setLength(length);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private boolean readHeader() throws IOException {
+        if (data.length() < HEADER_SIZE) {
+            return false;
+        }
+        data.seek(0);
+        return data.readInt() == MAGIC
+            && data.readInt() == VERSION
+            && data.readInt() == previewWidth
+            && data.readInt() == previewHeight;
+    }
+
+    private void writeHeader() throws IOException {
+        data.seek(0);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(previewWidth);
+        data.writeInt(previewHeight);
+    }
+
+    private void readIndex() throws IOException {
+        long position = HEADER_SIZE;
+        long length = data.length();
+        data.seek(position);
+
+        try {
+            while (position < length) {
+                int pathLength = data.readInt();
+                if (pathLength <= 0 || position + pathLength > length) {
+                    break;
+                }
+                byte[] pathBytes = new byte[pathLength];
+                data.readFully(pathBytes);
+                long lastModified = data.readLong();
+                int dataLength = data.readInt();
+                long offset = data.getFilePointer();
+                if (dataLength < 0 || offset + dataLength > length) {
+                    break;
+                }
+                data.seek(offset + dataLength);
+
+                long recordSize = offset + dataLength - position;
+                Entry previous = index.put(new String(pathBytes, StandardCharsets.UTF_8), new Entry(lastModified, offset, dataLength, recordSize));
+                liveBytes += recordSize;
+                if (previous != null) {
+                    liveBytes -= previous.recordSize;
+                    deadBytes += previous.recordSize;
+                }
+                position = offset + dataLength;
+            }
+        } catch (EOFException e) {
+            // torn final record
+        }
+
+        // Drop a partially written record left by a crash, so new records append cleanly
+        if (position < length) {
+            data.setLength(position);
+        }
+    }
+
+    // Rewrites the live records into a fresh file, least recently used first, dropping superseded ones and,
+    // over the size limit, the least recently used ones
+    private void compact() throws IOException {
+        File compacted = new File(file.getPath() + ".tmp");
+        LinkedHashMap<String, Entry> compactedIndex = new LinkedHashMap<>(16, 0.75f, true);
+
+        long keptBytes = liveBytes;
+        long evictedBytes = 0;
+        int evicted = 0;
+        long targetBytes = maxBytes > 0 ? (long) (maxBytes * COMPACTED_FRACTION) : Long.MAX_VALUE;
+
+        try (RandomAccessFile output = new RandomAccessFile(compacted, "rw")) {
+            output.setLength(0);
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(previewWidth);
+            output.writeInt(previewHeight);
+
+            Iterator<Map.Entry<String, Entry>> iterator = index.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Entry> mapEntry = iterator.next();
+                Entry entry = mapEntry.getValue();
+                if (keptBytes > targetBytes) {
+                    keptBytes -= entry.recordSize;
+                    evictedBytes += entry.recordSize;
+                    evicted++;
+                    continue;
+                }
+
+                byte[] bytes = new byte[entry.length];
+                data.seek(entry.offset);
+                data.readFully(bytes);
+
+                byte[] pathBytes = mapEntry.getKey().getBytes(StandardCharsets.UTF_8);
+                long recordStart = output.getFilePointer();
+                output.writeInt(pathBytes.length);
+                output.write(pathBytes);
+                output.writeLong(entry.lastModified);
+                output.writeInt(bytes.length);
+                long offset = output.getFilePointer();
+                output.write(bytes);
+                compactedIndex.put(mapEntry.getKey(), new Entry(entry.lastModified, offset, bytes.length, output.getFilePointer() - recordStart));
+            }
+        }
+
+        data.close();
+        try {
+            Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // Keep using the old file rather than losing the cache
+            compacted.delete();
+            data = new RandomAccessFile(file, "rw");
+            return;
+        }
+
+        long reclaimed = deadBytes + evictedBytes;
+        data = new RandomAccessFile(file, "rw");
+        index.clear();
+        index.putAll(compactedIndex);
+        liveBytes = keptBytes;
+        deadBytes = 0;
+        logMessage("Compacted preview disk cache, dropped " + evicted + " least recently used previews, reclaimed " + (reclaimed / 1024) + " KB");
+    }
+}
@@ -0,0 +1,305 @@
+package com.penguinpush.cullergrader.media;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The JPEG previews embedded in a RAW file, found in one pass over its structure.
+ *
+ * Most RAW formats are TIFF underneath and carry several JPEGs besides the EXIF thumbnail: a full-size or near
+ * full-size preview in IFD0 or a SubIFD (PreviewImage, JpgFromRaw), and on Panasonic files a JpgFromRaw tag.
+ * Fujifilm RAF files start with a header pointing at their JPEG. The IFD chain and SubIFDs are walked without
+ * reading any pixel data, and each candidate's size is taken from its JPEG frame header. Only baseline and
+ * progressive 8-bit JPEGs are kept, so lossless-JPEG raw data is never picked.
+ *
+ * select() then picks the smallest preview that still covers what a caller draws, so hashing and the grid
+ * decode a small JPEG and the viewer a large one.
+ */
+public class RawPreviews {
+
+    /**
+     * An embedded JPEG: where it is in the file and its stored (unrotated) size.
+     */
+    public static final class Preview {
+        public final long offset;
+        public final int length;
+        public final int width;
+        public final int height;
+
+        Preview(long offset, int length, int width, int height) {
+            this.offset = offset;
+            this.length = length;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + " at " + offset;
+        }
+    }
+
+    private static final RawPreviews NONE = new RawPreviews(Collections.emptyList(), 0);
+
+    private static final int MAX_IFDS = 64;
+    private static final int MAX_IFD_ENTRIES = 1024;
+    private static final int MAX_JPEG_SEGMENTS = 64;
+
+    private static final int TAG_COMPRESSION = 0x0103;
+    private static final int TAG_STRIP_OFFSETS = 0x0111;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_STRIP_BYTE_COUNTS = 0x0117;
+    private static final int TAG_SUB_IFDS = 0x014A;
+    private static final int TAG_JPEG_OFFSET = 0x0201;
+    private static final int TAG_JPEG_LENGTH = 0x0202;
+    private static final int TAG_PANASONIC_JPG_FROM_RAW = 0x002E;
+
+    private static final String RAF_MAGIC = "FUJIFILMCCD-RAW";
+
+    private final List<Preview> previews;  // smallest first
+    private final int orientation;
+
+    private RawPreviews(List<Preview> previews, int orientation) {
+        this.previews = previews;
+        this.orientation = orientation;
+    }
+
+    /**
+     * Lists the decodable JPEGs embedded in a RAW file. Never null; empty if the file isn't a format
+     * this understands (CR3, CRW) or can't be read.
+     */
+    public static RawPreviews scan(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] header = new byte[92];
+            if (raf.read(header) < 8) {
+                return NONE;
+            }
+
+            List<Preview> previews = new ArrayList<>();
+            int orientation = 0;
+            if (new String(header, 0, RAF_MAGIC.length(), StandardCharsets.US_ASCII).equals(RAF_MAGIC)) {
+                ByteBuffer fields = ByteBuffer.wrap(header).order(ByteOrder.BIG_ENDIAN);
+                addCandidate(raf, previews, new HashSet<>(), fields.getInt(84) & 0xFFFFFFFFL, fields.getInt(88) & 0xFFFFFFFFL);
+            } else if ((header[0] == 'I' && header[1] == 'I') || (header[0] == 'M' && header[1] == 'M')) {
+                // Plain TIFF, or a variant with its own magic number (ORF, RW2); the layout is the same
+                ByteOrder order = header[0] == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+                long firstIfd = ByteBuffer.wrap(header).order(order).getInt(4) & 0xFFFFFFFFL;
+                orientation = walkIfds(raf, order, firstIfd, previews);
+            } else {
+                return NONE;
+            }
+
+            previews.sort(Comparator.comparingLong(preview -> (long) preview.width * preview.height));
+            return new RawPreviews(previews, orientation);
+        } catch (IOException e) {
+            return NONE;
+        }
+    }
+
+    /**
+     * Reads a preview's JPEG bytes.
+     */
+    public static byte[] read(File file, Preview preview) throws IOException {
+        byte[] bytes = new byte[preview.length];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(preview.offset);
+            raf.readFully(bytes);
+        }
+        return bytes;
+    }
+
+    public List<Preview> getPreviews() {
+        return Collections.unmodifiableList(previews);
+    }
+
+    public boolean isEmpty() {
+        return previews.isEmpty();
+    }
+
+    /**
+     * The orientation tag in IFD0, or 0 if the file has none there (RAF keeps it in the embedded JPEG).
+     */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    public Preview getLargest() {
+        return previews.isEmpty() ? null : previews.get(previews.size() - 1);
+    }
+
+    /**
+     * The smallest preview that is at least as large as it is drawn when fitted into the target box,
+     * or the largest one if none is; null if there are none.
+     *
+     * @param targetWidth  Box width in display orientation
+     * @param targetHeight Box height in display orientation
+     * @param orientation  EXIF orientation of the photo; previews are stored unrotated
+     */
+    public Preview select(int targetWidth, int targetHeight, int orientation) {
+        boolean swapsAxes = orientation >= 5 && orientation <= 8;
+        int boxWidth = swapsAxes ? targetHeight : targetWidth;
+        int boxHeight = swapsAxes ? targetWidth : targetHeight;
+        for (Preview preview : previews) {
+            // Fitted into the box, an image that covers it fills it along at least one axis
+            if (preview.width >= boxWidth || preview.height >= boxHeight) {
+                return preview;
+            }
+        }
+        return getLargest();
+    }
+
+    // Walks IFD0, its chain and any SubIFDs, collecting JPEGs; returns IFD0's orientation, or 0
+    private static int walkIfds(RandomAccessFile raf, ByteOrder order, long firstIfd, List<Preview> previews) throws IOException {
+        long fileLength = raf.length();
+        Deque<Long> pending = new ArrayDeque<>();
+        Set<Long> visited = new HashSet<>();
+        Set<Long> found = new HashSet<>();
+        pending.add(firstIfd);
+        int orientation = 0;
+
+        while (!pending.isEmpty() && visited.size() < MAX_IFDS) {
+            long ifd = pending.poll();
+            if (ifd <= 0 || ifd + 2 > fileLength || !visited.add(ifd)) {
+                continue;
+            }
+
+            raf.seek(ifd);
+            int entryCount = readShort(raf, order);
+            if (entryCount <= 0 || entryCount > MAX_IFD_ENTRIES || ifd + 2 + entryCount * 12L + 4 > fileLength) {
+                continue;
+            }
+            ByteBuffer entries = ByteBuffer.allocate(entryCount * 12 + 4).order(order);
+            raf.readFully(entries.array());
+
+            long jpegOffset = -1, jpegLength = -1;
+            long stripOffset = -1, stripLength = -1;
+            int compression = 0;
+            for (int i = 0; i < entryCount; i++) {
+                int base = i * 12;
+                int tag = entries.getShort(base) & 0xFFFF;
+                int type = entries.getShort(base + 2) & 0xFFFF;
+                long count = entries.getInt(base + 4) & 0xFFFFFFFFL;
+                long value = type == 3 ? entries.getShort(base + 8) & 0xFFFF : entries.getInt(base + 8) & 0xFFFFFFFFL;
+
+                switch (tag) {
+                    case TAG_JPEG_OFFSET: jpegOffset = value; break;
+                    case TAG_JPEG_LENGTH: jpegLength = value; break;
+                    case TAG_COMPRESSION: compression = (int) value; break;
+                    // A JPEG stored as a single strip; multi-strip images are raw or uncompressed data
+                    case TAG_STRIP_OFFSETS: stripOffset = count == 1 ? value : -1; break;
+                    case TAG_STRIP_BYTE_COUNTS: stripLength = count == 1 ? value : -1; break;
+                    case TAG_ORIENTATION:
+                        if (ifd == firstIfd) {
+                            orientation = (int) value;
+                        }
+                        break;
+                    case TAG_PANASONIC_JPG_FROM_RAW:
+                        if (type == 7 && count > 4) {
+                            addCandidate(raf, previews, found, value, count);
+                        }
+                        break;
+                    case TAG_SUB_IFDS:
+                        addSubIfds(raf, order, count, value, pending);
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            addCandidate(raf, previews, found, jpegOffset, jpegLength);
+            if (compression == 6 || compression == 7) {
+                addCandidate(raf, previews, found, stripOffset, stripLength);
+            }
+            pending.add(entries.getInt(entryCount * 12) & 0xFFFFFFFFL);  // next IFD in the chain
+        }
+        return orientation;
+    }
+
+    private static void addSubIfds(RandomAccessFile raf, ByteOrder order, long count, long value, Deque<Long> pending) throws IOException {
+        if (count == 1) {
+            pending.add(value);
+            return;
+        }
+        if (count > MAX_IFDS || value + count * 4 > raf.length()) {
+            return;
+        }
+        long position = raf.getFilePointer();
+        ByteBuffer offsets = ByteBuffer.allocate((int) count * 4).order(order);
+        raf.seek(value);
+        raf.readFully(offsets.array());
+        raf.seek(position);
+        for (int i = 0; i < count; i++) {
+            pending.add(offsets.getInt(i * 4) & 0xFFFFFFFFL);
+        }
+    }
+
+    private static void addCandidate(RandomAccessFile raf, List<Preview> previews, Set<Long> found, long offset, long length) throws IOException {
+        if (offset <= 0 || length <= 0 || length > Integer.MAX_VALUE || offset + length > raf.length() || !found.add(offset)) {
+            return;
+        }
+        long position = raf.getFilePointer();
+        try {
+            int[] size = readJpegSize(raf, offset, offset + length);
+            if (size != null) {
+                previews.add(new Preview(offset, (int) length, size[0], size[1]));
+            }
+        } catch (IOException e) {
+            // A truncated or corrupt preview; the others may still be fine
+        } finally {
+            raf.seek(position);
+        }
+    }
+
+    // Width and height from the JPEG's frame header, or null unless it's an 8-bit baseline or progressive JPEG
+    private static int[] readJpegSize(RandomAccessFile raf, long start, long end) throws IOException {
+        raf.seek(start);
+        if (raf.readUnsignedByte() != 0xFF || raf.readUnsignedByte() != 0xD8) {
+            return null;
+        }
+
+        for (int segment = 0; segment < MAX_JPEG_SEGMENTS && raf.getFilePointer() + 4 <= end; segment++) {
+            if (raf.readUnsignedByte() != 0xFF) {
+                return null;
+            }
+            int marker = raf.readUnsignedByte();
+            while (marker == 0xFF) {  // fill bytes
+                marker = raf.readUnsignedByte();
+            }
+            int segmentLength = raf.readUnsignedShort();
+            if (segmentLength < 2) {
+                return null;
+            }
+
+            if (marker == 0xC0 || marker == 0xC1 || marker == 0xC2) {
+                int precision = raf.readUnsignedByte();
+                int height = raf.readUnsignedShort();
+                int width = raf.readUnsignedShort();
+                int components = raf.readUnsignedByte();
+                boolean decodable = precision == 8 && (components == 1 || components == 3) && width > 0 && height > 0;
+                return decodable ? new int[] {width, height} : null;
+            }
+            if ((marker >= 0xC3 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) || marker == 0xDA) {
+                return null;  // lossless or arithmetic coded, or no frame header before the scan
+            }
+            raf.seek(raf.getFilePointer() + segmentLength - 2);
+        }
+        return null;
+    }
+
+    private static int readShort(RandomAccessFile raf, ByteOrder order) throws IOException {
+        int value = raf.readUnsignedShort();
+        return order == ByteOrder.BIG_ENDIAN ? value : Short.reverseBytes((short) value) & 0xFFFF;
+    }
+}
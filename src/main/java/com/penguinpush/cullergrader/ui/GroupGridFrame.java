@@ -6,18 +6,23 @@ import com.penguinpush.cullergrader.media.*;
 import com.penguinpush.cullergrader.utils.Logger;
 
 import javax.swing.*;
+import java.util.ArrayList;
 import java.util.List;
 import java.io.File;
+import java.util.concurrent.ExecutionException;
 
 public class GroupGridFrame extends JFrame {
 
+    private static final int PROGRESS_INTERVAL_MS = 200;
+
     private static GroupGridFrame instance;
     List<PhotoGroup> photoGroups;
     public PhotoGridFrame photoGridFrame;
-    private boolean needsRefresh = false;
     private ImageLoader imageLoader;
     private GroupingEngine groupingEngine;
     private File importDirectory;
+    private LoadProgress loadProgress;  // the folder load in progress, null when idle
+    private Timer progressTimer;
 
     public GroupGridFrame(ImageLoader imageLoader, GroupingEngine groupingEngine) {
         instance = this; // set a static instance
@@ -36,48 +41,134 @@ public class GroupGridFrame extends JFrame {
         int width = AppConstants.GRIDMEDIA_PHOTO_WIDTH;
         int height = AppConstants.GRIDMEDIA_PHOTO_HEIGHT;
 
-        this.photoGroups = photoGroups;
+        // copied, since groups are appended to it while a folder loads
+        this.photoGroups = new ArrayList<>(photoGroups);
 
         if (photoGridFrame != null) {
             photoGridFrame.dispose();
         }
-        photoGridFrame = new PhotoGridFrame(photoGroups, this, imageLoader);
+        photoGridFrame = new PhotoGridFrame(this.photoGroups, imageLoader);
 
         jGridPanel.populateGrid((List<GridMedia>) (List<? extends GridMedia>) photoGroups, width, height, AppConstants.GROUP_OFFSCREEN_PRIORITY);
+        jGridPanel.updatePriorities(AppConstants.GROUP_ONSCREEN_PRIORITY, AppConstants.GROUP_OFFSCREEN_PRIORITY);
         jGridPanel.refreshGrid(); // refresh grid again, because i guess the one inside populateGrid() doesn't call...
+    }
 
-
-        jReloadButton.setEnabled(true);
+    // Shows groups that finished loading; a group's index is its position, so ones already shown are skipped
+    private void appendGroups(List<PhotoGroup> groups) {
+        List<GridMedia> added = new ArrayList<>();
+        for (PhotoGroup group : groups) {
+            if (group.getIndex() == photoGroups.size()) {
+                photoGroups.add(group);
+                added.add(group);
+            }
+        }
+        if (!added.isEmpty()) {
+            jGridPanel.appendToGrid(added);
+        }
     }
 
-    private void initComponentProperties() {
-        jTimestampSpinner.setValue(AppConstants.TIME_THRESHOLD_SECONDS);
-        jSimilaritySpinner.setValue(AppConstants.SIMILARITY_THRESHOLD_PERCENT);
+    /**
+     * Loads the import directory on a background thread, showing groups as they complete, with progress and
+     * a cancel button. Cancelling keeps the groups loaded so far.
+     *
+     * @param announce Whether to show a dialog once the folder has loaded
+     */
+    private void loadFolderInBackground(boolean announce) {
+        long startTime = System.currentTimeMillis();
+        File directory = importDirectory;
+        float timestampThreshold = (float) jTimestampSpinner.getValue();
+        float similarityThreshold = (float) jSimilaritySpinner.getValue();
 
-        jGridPanel.getGridScrollPane().getViewport().addChangeListener(e -> {
-            jGridPanel.updatePriorities(AppConstants.GROUP_ONSCREEN_PRIORITY, AppConstants.GROUP_OFFSCREEN_PRIORITY);
-        });
+        LoadProgress progress = new LoadProgress();
+        loadProgress = progress;
+        loadFrame(new ArrayList<>());
+        setLoading(true);
 
-        addWindowFocusListener(new java.awt.event.WindowFocusListener() {
+        new SwingWorker<List<PhotoGroup>, PhotoGroup>() {
             @Override
-            public void windowGainedFocus(java.awt.event.WindowEvent evt) {
-                if (!needsRefresh) {
-                    return;
-                }
+            protected List<PhotoGroup> doInBackground() {
+                return FileUtils.loadFolder(directory, groupingEngine, timestampThreshold, similarityThreshold,
+                        progress, group -> publish(group));
+            }
 
-                jGridPanel.repopulateGrid(AppConstants.GROUP_OFFSCREEN_PRIORITY);
-                needsRefresh = false;
+            @Override
+            protected void process(List<PhotoGroup> groups) {
+                if (loadProgress == progress) {
+                    appendGroups(groups);
+                }
             }
 
             @Override
-            public void windowLostFocus(java.awt.event.WindowEvent evt) {
+            protected void done() {
+                if (loadProgress != progress) {
+                    return;
+                }
+                loadProgress = null;
+                setLoading(false);
+
+                try {
+                    appendGroups(get());  // the last groups may still be waiting to be processed
+                } catch (InterruptedException | ExecutionException e) {
+                    Logger.logMessage("couldn't load folder: " + directory.getAbsolutePath() + " - " + e.getMessage());
+                    return;
+                }
+                Logger.logMessage("Memory after load: " + MemoryBudget.describeUsage());
+
+                long endTime = System.currentTimeMillis();
+                if (progress.isCancelled()) {
+                    setInfoText("load cancelled after " + (endTime - startTime) + " ms, showing " + photoGroups.size()
+                            + " groups from " + progress.getHashed() + " of " + progress.getTotal() + " photos");
+                    return;
+                }
 
+                if (announce) {
+                    JOptionPane.showMessageDialog(
+                            null,
+                            "Successfully opened folder: " + directory.getAbsolutePath(),
+                            "Import Complete!",
+                            JOptionPane.INFORMATION_MESSAGE
+                    );
+                }
+                // this message isn't logged due to dependency reasons, but you can do the math yourself with the log timestamps so it's okay
+                setInfoText("load completed in " + (endTime - startTime) + " ms");
             }
-        });
+        }.execute();
     }
 
-    public void setNeedsRefresh() {
-        this.needsRefresh = true;
+    private void setLoading(boolean loading) {
+        jMenuItemOpen.setEnabled(!loading);
+        jReloadButton.setEnabled(!loading && importDirectory != null);
+        jCancelButton.setEnabled(loading);
+        jCancelButton.setText("Cancel");
+        jCancelButton.setVisible(loading);
+        jProgressBar.setVisible(loading);
+        jProgressBar.setValue(0);
+        jProgressBar.setString("");
+
+        if (loading) {
+            progressTimer.start();
+        } else {
+            progressTimer.stop();
+        }
+    }
+
+    private void updateProgress() {
+        LoadProgress progress = loadProgress;
+        if (progress != null) {
+            jProgressBar.setValue(Math.round(progress.getFraction() * jProgressBar.getMaximum()));
+            jProgressBar.setString(progress.toString());
+        }
+    }
+
+    private void initComponentProperties() {
+        jTimestampSpinner.setValue(AppConstants.TIME_THRESHOLD_SECONDS);
+        jSimilaritySpinner.setValue(AppConstants.SIMILARITY_THRESHOLD_PERCENT);
+
+        progressTimer = new Timer(PROGRESS_INTERVAL_MS, e -> updateProgress());
+        jProgressBar.setMaximum(1000);
+        jProgressBar.setStringPainted(true);
+        setLoading(false);
     }
 
     public static void setInfoText(String infoText) {
@@ -99,6 +190,8 @@ public class GroupGridFrame extends JFrame {
         jSimilarityLabel = new javax.swing.JLabel();
         jInfoTextLabel = new javax.swing.JLabel();
         jReloadButton = new javax.swing.JButton();
+        jProgressBar = new javax.swing.JProgressBar();
+        jCancelButton = new javax.swing.JButton();
         jMenuBar = new javax.swing.JMenuBar();
         jMenu = new javax.swing.JMenu();
         jMenuItemOpen = new javax.swing.JMenuItem();
@@ -130,6 +223,13 @@ public class GroupGridFrame extends JFrame {
             }
         });
 
+        jCancelButton.setText("Cancel");
+        jCancelButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jCancelButtonActionPerformed(evt);
+            }
+        });
+
         jMenu.setText("File");
 
         jMenuItemOpen.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_O, java.awt.event.InputEvent.CTRL_DOWN_MASK));
@@ -179,6 +279,10 @@ public class GroupGridFrame extends JFrame {
                         .addGroup(javax.swing.GroupLayout.Alignment.TRAILING, layout.createSequentialGroup()
                                 .addContainerGap()
                                 .addComponent(jInfoTextLabel)
+                                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                                .addComponent(jProgressBar, javax.swing.GroupLayout.PREFERRED_SIZE, 320, javax.swing.GroupLayout.PREFERRED_SIZE)
+                                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                                .addComponent(jCancelButton)
                                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED, 336, Short.MAX_VALUE)
                                 .addComponent(jTimestampLabel)
                                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
@@ -202,7 +306,9 @@ public class GroupGridFrame extends JFrame {
                                         .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
                                                 .addComponent(jTimestampSpinner, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                                                 .addComponent(jTimestampLabel)
-                                                .addComponent(jInfoTextLabel))
+                                                .addComponent(jInfoTextLabel)
+                                                .addComponent(jProgressBar, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                                                .addComponent(jCancelButton))
                                         .addComponent(jReloadButton))
                                 .addContainerGap())
         );
@@ -318,42 +424,28 @@ public class GroupGridFrame extends JFrame {
 
         int result = chooser.showOpenDialog(null);
         if (result == JFileChooser.APPROVE_OPTION) {
-            long startTime = System.currentTimeMillis();
 
             importDirectory = chooser.getSelectedFile();
 
             // Clear image preview cache when loading new directory (fresh start)
             PhotoUtils.clearImagePreviewCache();
 
-            List<PhotoGroup> groups = FileUtils.loadFolder(importDirectory, groupingEngine, (float) jTimestampSpinner.getValue(), (float) jSimilaritySpinner.getValue());
-            loadFrame(groups);
-
-            SwingUtilities.invokeLater(() -> {
-                JOptionPane.showMessageDialog(
-                        null,
-                        "Successfully opened folder: " + importDirectory.getAbsolutePath(),
-                        "Import Complete!",
-                        JOptionPane.INFORMATION_MESSAGE
-                );
-
-                // this message isn't logged due to dependency reasons, but you can do the math yourself with the log timestamps so it's okay
-                long endTime = System.currentTimeMillis();
-                setInfoText("load completed in " + (endTime - startTime) + " ms");
-            });
+            loadFolderInBackground(true);
         }
     }//GEN-LAST:event_jMenuItemOpenActionPerformed
 
     private void jReloadButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jReloadButtonActionPerformed
-        long startTime = System.currentTimeMillis();
-
-        List<PhotoGroup> groups = FileUtils.loadFolder(importDirectory, groupingEngine, (float) jTimestampSpinner.getValue(), (float) jSimilaritySpinner.getValue());
-        loadFrame(groups);
-
-        // same case as above, not logged but all good
-        long endTime = System.currentTimeMillis();
-        setInfoText("load completed in " + (endTime - startTime) + " ms");
+        loadFolderInBackground(false);
     }//GEN-LAST:event_jReloadButtonActionPerformed
 
+    private void jCancelButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jCancelButtonActionPerformed
+        if (loadProgress != null) {
+            loadProgress.cancel();
+            jCancelButton.setEnabled(false);
+            jCancelButton.setText("Cancelling...");
+        }
+    }//GEN-LAST:event_jCancelButtonActionPerformed
+
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private com.penguinpush.cullergrader.ui.components.JGridPanel jGridPanel;
@@ -365,6 +457,8 @@ public class GroupGridFrame extends JFrame {
     private javax.swing.JMenuItem jMenuItemExportJson;
     private javax.swing.JMenuItem jMenuItemOpen;
     private javax.swing.JButton jReloadButton;
+    private javax.swing.JProgressBar jProgressBar;
+    private javax.swing.JButton jCancelButton;
     private javax.swing.JLabel jSimilarityLabel;
     private javax.swing.JSpinner jSimilaritySpinner;
     private javax.swing.JLabel jTimestampLabel;
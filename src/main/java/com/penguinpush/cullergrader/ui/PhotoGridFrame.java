@@ -4,11 +4,13 @@ import com.penguinpush.cullergrader.config.AppConstants;
 import com.penguinpush.cullergrader.logic.ImageLoader;
 import com.penguinpush.cullergrader.media.*;
 
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
-import java.util.LinkedHashSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.*;
 import java.awt.event.*;
 
@@ -16,66 +18,74 @@ public class PhotoGridFrame extends JFrame {
 
     public PhotoGroup photoGroup;
     List<PhotoGroup> photoGroups;
-    private GroupGridFrame groupGridFrame;
-    private final Map<Photo, BufferedImage> thumbnailCache = new ConcurrentHashMap<>();
-    private final LinkedHashSet<Photo> recentlyAccessedPhotos = new LinkedHashSet<>();
+    private final ViewerImageCache imageCache = new ViewerImageCache(AppConstants.PHOTO_LRU_CACHE_SIZE);
     private ImageLoader imageLoader;
+    private ImageLoader.LoadGeneration preloadGeneration;  // preloads for the current group, cancelled on group switch
+    private Dimension decodeSize;  // viewer size the cached images were decoded for
+    private final PrefetchPlanner prefetchPlanner = new PrefetchPlanner();
+    private final Map<Photo, ImageLoader.LoadHandle> photoPrefetches = new HashMap<>();  // current group's prefetches
 
-    public PhotoGridFrame(List<PhotoGroup> photoGroups, GroupGridFrame groupGridFrame, ImageLoader imageLoader) {
+    public PhotoGridFrame(List<PhotoGroup> photoGroups, ImageLoader imageLoader) {
         this.photoGroups = photoGroups;
-        this.groupGridFrame = groupGridFrame;
         this.imageLoader = imageLoader;
 
         initComponents();
         initComponentProperties();
+        MemoryBudget.register(MemoryBudget.Tier.VIEWER, imageCache);
     }
 
     public void updateGrid(PhotoGroup photoGroup) {
         int width = AppConstants.GRIDMEDIA_PHOTO_WIDTH;
         int height = AppConstants.GRIDMEDIA_PHOTO_HEIGHT;
 
-        // Save photos from the new group before clearing cache
-        Map<Photo, BufferedImage> savedPhotos = new ConcurrentHashMap<>();
-        for (Photo photo : photoGroup.getPhotos()) {
-            if (thumbnailCache.containsKey(photo)) {
-                savedPhotos.put(photo, thumbnailCache.get(photo));
-            }
-        }
+        // Photos of other groups are kept while those groups are in the prefetch window, see evictOutOfWindowPhotos()
+        imageCache.clearRecentlyShown();
 
-        // Clear caches when switching groups
-        thumbnailCache.clear();
-        recentlyAccessedPhotos.clear();
+        this.photoGroup = photoGroup;
 
-        // Restore saved photos from the new group
-        thumbnailCache.putAll(savedPhotos);
+        // New loads go into a fresh generation; the old one is cancelled once they're queued,
+        // so photos wanted by both groups keep their in-progress decodes
+        ImageLoader.LoadGeneration staleGeneration = preloadGeneration;
+        preloadGeneration = imageLoader.newGeneration();
 
-        this.photoGroup = photoGroup;
         jGridPanel.populateGrid((List<GridMedia>) (List<? extends GridMedia>) photoGroup.getPhotos(), width, height, AppConstants.PHOTO_OFFSCREEN_PRIORITY);
         jGridPanel.updatePriorities(AppConstants.PHOTO_ONSCREEN_PRIORITY, AppConstants.PHOTO_OFFSCREEN_PRIORITY);
 
-        // Get first selected photo (or first photo if none selected)
-        Photo photoToShow = photoGroup.getSelectedTakes().isEmpty()
-            ? (photoGroup.getPhotos().isEmpty() ? null : photoGroup.getPhotos().get(0))
-            : photoGroup.getSelectedTakes().iterator().next();
-
+        Photo photoToShow = getPhotoToShow(photoGroup);
         if (photoToShow != null) {
+            // Also preloads nearby photos
             setImagePanelPhoto(photoToShow);
-            // Preload nearby photos when group opens
-            preloadNearbyPhotos(photoToShow, AppConstants.PHOTO_CACHE_WINDOW_SIZE);
         }
 
         // Preload first photo of adjacent groups (lower priority)
         preloadAdjacentGroups();
 
+        if (staleGeneration != null) {
+            staleGeneration.cancel();
+        }
+
         setVisible(true);
     }
 
     private void initComponentProperties() {
         jGridPanel.init(imageLoader);
         jImagePanel.init(imageLoader);
-        
-        jGridPanel.getGridScrollPane().getViewport().addChangeListener(e -> {
-            jGridPanel.updatePriorities(AppConstants.PHOTO_ONSCREEN_PRIORITY, AppConstants.PHOTO_OFFSCREEN_PRIORITY);
+
+        // Cached images are decoded to fit the viewer; if it grows past that, they would be upscaled
+        jImagePanel.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                Dimension newSize = jImagePanel.getDecodeSize();
+                if (decodeSize == null || (newSize.width <= decodeSize.width && newSize.height <= decodeSize.height)) {
+                    return;
+                }
+                decodeSize = newSize;
+                clearCachedImages();
+                Photo photo = jImagePanel.getPhoto();
+                if (photo != null) {
+                    setImagePanelPhoto(photo);
+                }
+            }
         });
 
         jGridPanel.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_ALWAYS);
@@ -88,6 +98,7 @@ public class PhotoGridFrame extends JFrame {
         Photo photo = jImagePanel.getPhoto();
 
         if (photo.getIndex() > 0) {
+            prefetchPlanner.step(PrefetchPlanner.Axis.PHOTO, -1);
             Photo photo_new = photoGroup.getPhotos().get(photo.getIndex() - 1);
             setImagePanelPhoto(photo_new);
         }
@@ -97,6 +108,7 @@ public class PhotoGridFrame extends JFrame {
         Photo photo = jImagePanel.getPhoto();
 
          if (photo.getIndex() < photoGroup.getSize() - 1) {
+            prefetchPlanner.step(PrefetchPlanner.Axis.PHOTO, 1);
             Photo photo_new = photoGroup.getPhotos().get(photo.getIndex() + 1);
             setImagePanelPhoto(photo_new);
         }
@@ -104,6 +116,7 @@ public class PhotoGridFrame extends JFrame {
 
     private void previousGroup() {
         if (photoGroup.getIndex() > 0) {
+            prefetchPlanner.step(PrefetchPlanner.Axis.GROUP, -1);
             PhotoGroup photoGroup_new = photoGroups.get(photoGroup.getIndex() - 1);
             updateGrid(photoGroup_new);
         }
@@ -111,6 +124,7 @@ public class PhotoGridFrame extends JFrame {
 
     private void nextGroup() {
         if (photoGroup.getIndex() < photoGroups.size() - 1) {
+            prefetchPlanner.step(PrefetchPlanner.Axis.GROUP, 1);
             PhotoGroup photoGroup_new = photoGroups.get(photoGroup.getIndex() + 1);
             updateGrid(photoGroup_new);
         }
@@ -120,11 +134,8 @@ public class PhotoGridFrame extends JFrame {
         Photo photo = jImagePanel.getPhoto();
 
         if (photoGroup.getIndex() <= photoGroups.size() - 1) {
+            // The photo and group cells showing this group listen for the change and repaint themselves
             photoGroup.toggleSelection(photo);
-            groupGridFrame.setNeedsRefresh();
-            jGridPanel.repaint(); // Repaint photo grid thumbnails
-            groupGridFrame.repaint(); // Repaint group grid to update opacity
-            repaint();
         }
     }
 
@@ -133,127 +144,164 @@ public class PhotoGridFrame extends JFrame {
         toggleSelection();
     }
 
-    private void preloadNearbyPhotos(Photo currentPhoto, int windowSize) {
+    // First selected photo (or first photo if none selected), the one a group opens on
+    private Photo getPhotoToShow(PhotoGroup group) {
+        if (!group.getSelectedTakes().isEmpty()) {
+            return group.getSelectedTakes().iterator().next();
+        }
+        return group.getPhotos().isEmpty() ? null : group.getPhotos().get(0);
+    }
+
+    // Queues the photos around the current one, nearest first and ahead of the user's movement before behind it,
+    // and cancels prefetches for photos the user has moved past
+    private void preloadNearbyPhotos(Photo currentPhoto) {
         if (photoGroup == null || photoGroup.getPhotos().isEmpty() || currentPhoto == null) {
             return;
         }
 
         int currentIndex = currentPhoto.getIndex();
         int groupSize = photoGroup.getSize();
-        int startIndex = Math.max(0, currentIndex - windowSize);
-        int endIndex = Math.min(groupSize - 1, currentIndex + windowSize);
-
-        for (int i = startIndex; i <= endIndex; i++) {
-            Photo photo = photoGroup.getPhotos().get(i);
+        int[] window = prefetchPlanner.getWindow(PrefetchPlanner.Axis.PHOTO, AppConstants.PHOTO_CACHE_WINDOW_SIZE);
+        int startIndex = Math.max(0, currentIndex - window[0]);
+        int endIndex = Math.min(groupSize - 1, currentIndex + window[1]);
+
+        for (Iterator<Map.Entry<Photo, ImageLoader.LoadHandle>> iterator = photoPrefetches.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<Photo, ImageLoader.LoadHandle> prefetch = iterator.next();
+            Photo photo = prefetch.getKey();
+            boolean inWindow = photo.getGroup() == photoGroup && photo.getIndex() >= startIndex && photo.getIndex() <= endIndex;
+            if (!inWindow) {
+                prefetch.getValue().cancel();
+            }
+            if (!inWindow || !prefetch.getValue().isActive()) {
+                iterator.remove();
+            }
+        }
 
-            // Skip if already in cache
-            if (thumbnailCache.containsKey(photo)) {
-                continue;
+        int direction = prefetchPlanner.getDirection(PrefetchPlanner.Axis.PHOTO) < 0 ? -1 : 1;
+        for (int distance = 0; distance <= Math.max(window[0], window[1]); distance++) {
+            preloadPhoto(currentPhoto, currentIndex + direction * distance, startIndex, endIndex);
+            if (distance > 0) {
+                preloadPhoto(currentPhoto, currentIndex - direction * distance, startIndex, endIndex);
             }
+        }
+    }
 
-            // Determine priority: MAX_PRIORITY for current photo, IMAGE_PRIORITY for nearby photos
-            int priority = photo.equals(currentPhoto) ? AppConstants.MAX_PRIORITY : AppConstants.IMAGE_PRIORITY;
+    private void preloadPhoto(Photo currentPhoto, int index, int startIndex, int endIndex) {
+        if (index < startIndex || index > endIndex) {
+            return;
+        }
+        Photo photo = photoGroup.getPhotos().get(index);
+        boolean isCurrent = photo.equals(currentPhoto);
+
+        // Skip if already in cache or on its way, unless it's the current photo and needs its priority raised
+        if (imageCache.contains(photo) || (photoPrefetches.containsKey(photo) && !isCurrent)) {
+            return;
+        }
+
+        // Determine priority: MAX_PRIORITY for current photo, IMAGE_PRIORITY for nearby photos
+        int priority = isCurrent ? AppConstants.MAX_PRIORITY : AppConstants.IMAGE_PRIORITY;
 
-            // Load full image and cache it
-            imageLoader.loadImage(photo, priority, true, (imageFullRes) -> {
-                thumbnailCache.put(photo, imageFullRes);
-            });
+        // Load the image at viewer resolution and cache it
+        ImageLoader.LoadHandle handle = imageLoader.loadFullImage(photo, priority, getDecodeSize(), preloadGeneration, (imageFullRes) -> {
+            cacheImage(photo, imageFullRes);
+        });
+        ImageLoader.LoadHandle previous = photoPrefetches.put(photo, handle);
+        if (previous != null) {
+            previous.cancel();  // the decode carries on for the new handle
         }
     }
 
-    private void evictOutOfWindowPhotos(Photo currentPhoto, int windowSize) {
+    // Evicts photos outside the prefetch windows, so they match what was just preloaded
+    private void evictOutOfWindowPhotos(Photo currentPhoto) {
         if (photoGroup == null || currentPhoto == null || photoGroups == null) {
             return;
         }
 
         int currentIndex = currentPhoto.getIndex();
-        int startIndex = Math.max(0, currentIndex - windowSize);
-        int endIndex = Math.min(photoGroup.getSize() - 1, currentIndex + windowSize);
+        int[] window = prefetchPlanner.getWindow(PrefetchPlanner.Axis.PHOTO, AppConstants.PHOTO_CACHE_WINDOW_SIZE);
+        int startIndex = Math.max(0, currentIndex - window[0]);
+        int endIndex = Math.min(photoGroup.getSize() - 1, currentIndex + window[1]);
 
         int currentGroupIndex = photoGroup.getIndex();
-        int startGroupIndex = Math.max(0, currentGroupIndex - windowSize);
-        int endGroupIndex = Math.min(photoGroups.size() - 1, currentGroupIndex + windowSize);
-
-        // Remove photos outside the window, but preserve recently accessed photos
-        thumbnailCache.keySet().removeIf(photo -> {
-            // Check if photo belongs to current group
-            boolean isFromCurrentGroup = photoGroup.getPhotos().contains(photo);
-
-            if (isFromCurrentGroup) {
-                // For photos in current group, evict if outside window and not recently accessed
-                int photoIndex = photo.getIndex();
-                boolean isOutsideWindow = photoIndex < startIndex || photoIndex > endIndex;
-                boolean isRecentlyAccessed = recentlyAccessedPhotos.contains(photo);
-                return isOutsideWindow && !isRecentlyAccessed;
-            } else {
-                // For photos from other groups, check if they're from groups within the window
-                // Find which group this photo belongs to
-                for (int i = 0; i < photoGroups.size(); i++) {
-                    PhotoGroup group = photoGroups.get(i);
-                    if (group.getPhotos().contains(photo)) {
-                        // Evict if group is outside the ±windowSize range
-                        return i < startGroupIndex || i > endGroupIndex;
-                    }
-                }
-                // If we can't find the group, evict it (safety fallback)
-                return true;
-            }
-        });
+        int[] groupWindow = prefetchPlanner.getWindow(PrefetchPlanner.Axis.GROUP, AppConstants.PHOTO_CACHE_WINDOW_SIZE);
+        int startGroupIndex = Math.max(0, currentGroupIndex - groupWindow[0]);
+        int endGroupIndex = Math.min(photoGroups.size() - 1, currentGroupIndex + groupWindow[1]);
+
+        // Remove photos outside the windows, but preserve recently shown photos
+        imageCache.retainWindows(currentGroupIndex, startIndex, endIndex, startGroupIndex, endGroupIndex);
     }
 
-    private void trackPhotoAccess(Photo photo) {
-        // Remove if already present (to update order)
-        recentlyAccessedPhotos.remove(photo);
-        // Add to end (most recent)
-        recentlyAccessedPhotos.add(photo);
+    private void cacheImage(Photo photo, BufferedImage image) {
+        imageCache.put(photo, image);
+    }
 
-        // Trim to LRU cache size by removing oldest entries
-        while (recentlyAccessedPhotos.size() > AppConstants.PHOTO_LRU_CACHE_SIZE) {
-            Photo oldest = recentlyAccessedPhotos.iterator().next();
-            recentlyAccessedPhotos.remove(oldest);
-        }
+    private void clearCachedImages() {
+        imageCache.clear();
     }
 
+    // Queues the photo each nearby group opens on, nearest groups first and ahead of the user's movement first;
+    // groups ahead of an up/down movement get all their selected takes, since those are what the user is checking
     private void preloadAdjacentGroups() {
         if (photoGroup == null || photoGroups == null) {
             return;
         }
 
         int currentGroupIndex = photoGroup.getIndex();
-        int windowSize = AppConstants.PHOTO_CACHE_WINDOW_SIZE;
-
-        // Preload first photos of previous groups (up to windowSize groups back)
-        int startGroupIndex = Math.max(0, currentGroupIndex - windowSize);
-        for (int i = startGroupIndex; i < currentGroupIndex; i++) {
-            PhotoGroup group = photoGroups.get(i);
-            if (!group.getPhotos().isEmpty()) {
-                Photo firstPhoto = group.getPhotos().get(0);
-                if (!thumbnailCache.containsKey(firstPhoto)) {
-                    imageLoader.loadImage(firstPhoto, AppConstants.GROUP_ONSCREEN_PRIORITY, true, (imageFullRes) -> {
-                        thumbnailCache.put(firstPhoto, imageFullRes);
-                    });
-                }
+        int[] window = prefetchPlanner.getWindow(PrefetchPlanner.Axis.GROUP, AppConstants.PHOTO_CACHE_WINDOW_SIZE);
+        int movement = prefetchPlanner.getDirection(PrefetchPlanner.Axis.GROUP);
+        int direction = movement < 0 ? -1 : 1;
+
+        for (int distance = 1; distance <= Math.max(window[0], window[1]); distance++) {
+            int ahead = currentGroupIndex + direction * distance;
+            int behind = currentGroupIndex - direction * distance;
+            if (distance <= (direction > 0 ? window[1] : window[0])) {
+                preloadGroup(ahead, movement != 0);
             }
+            if (distance <= (direction > 0 ? window[0] : window[1])) {
+                preloadGroup(behind, false);
+            }
+        }
+    }
+
+    private void preloadGroup(int groupIndex, boolean allSelectedTakes) {
+        if (groupIndex < 0 || groupIndex >= photoGroups.size()) {
+            return;
         }
 
-        // Preload first photos of next groups (up to windowSize groups forward)
-        int endGroupIndex = Math.min(photoGroups.size() - 1, currentGroupIndex + windowSize);
-        for (int i = currentGroupIndex + 1; i <= endGroupIndex; i++) {
-            PhotoGroup group = photoGroups.get(i);
-            if (!group.getPhotos().isEmpty()) {
-                Photo firstPhoto = group.getPhotos().get(0);
-                if (!thumbnailCache.containsKey(firstPhoto)) {
-                    imageLoader.loadImage(firstPhoto, AppConstants.GROUP_ONSCREEN_PRIORITY, true, (imageFullRes) -> {
-                        thumbnailCache.put(firstPhoto, imageFullRes);
-                    });
+        PhotoGroup group = photoGroups.get(groupIndex);
+        List<Photo> photos = new ArrayList<>();
+        Photo photoToShow = getPhotoToShow(group);
+        if (photoToShow != null) {
+            photos.add(photoToShow);
+        }
+        if (allSelectedTakes) {
+            for (Photo take : group.getSelectedTakes()) {
+                if (!take.equals(photoToShow)) {
+                    photos.add(take);
                 }
             }
         }
+
+        for (Photo photo : photos) {
+            if (!imageCache.contains(photo)) {
+                imageLoader.loadFullImage(photo, AppConstants.GROUP_ONSCREEN_PRIORITY, getDecodeSize(), preloadGeneration, (imageFullRes) -> {
+                    cacheImage(photo, imageFullRes);
+                });
+            }
+        }
+    }
+
+    private Dimension getDecodeSize() {
+        if (decodeSize == null) {
+            decodeSize = jImagePanel.getDecodeSize();
+        }
+        return decodeSize;
     }
 
     public void setImagePanelPhoto(Photo photo) {
-        if (thumbnailCache.containsKey(photo)) {
-            jImagePanel.setPhotoAndImage(photo, thumbnailCache.get(photo));
+        BufferedImage cachedImage = imageCache.get(photo);
+        if (cachedImage != null) {
+            jImagePanel.setPhotoAndImage(photo, cachedImage);
         } else {
             SwingUtilities.invokeLater(() -> jImagePanel.setPhoto(photo));
         }
@@ -261,16 +309,22 @@ public class PhotoGridFrame extends JFrame {
         // Update border highlighting for currently viewed photo
         jGridPanel.setCurrentlyViewedPhoto(photo);
 
-        // Track this photo as recently accessed for LRU cache
-        trackPhotoAccess(photo);
+        // Track this photo as recently shown, so it stays cached for a while
+        imageCache.markShown(photo);
 
         // Preload nearby photos and evict photos outside the window
-        preloadNearbyPhotos(photo, AppConstants.PHOTO_CACHE_WINDOW_SIZE);
-        evictOutOfWindowPhotos(photo, AppConstants.PHOTO_CACHE_WINDOW_SIZE);
+        preloadNearbyPhotos(photo);
+        evictOutOfWindowPhotos(photo);
     }
 
     @Override
     public void dispose() {
+        if (preloadGeneration != null) {
+            preloadGeneration.cancel();
+        }
+        photoPrefetches.clear();
+        MemoryBudget.unregister(imageCache);
+        clearCachedImages();
         super.dispose();
     }
 
@@ -289,6 +343,8 @@ public class PhotoGridFrame extends JFrame {
         jMenuNextGroup = new javax.swing.JMenuItem();
         jSeparator2 = new javax.swing.JPopupMenu.Separator();
         jMenuSetBestTake = new javax.swing.JMenuItem();
+        jSeparator3 = new javax.swing.JPopupMenu.Separator();
+        jMenuToggleZoom = new javax.swing.JMenuItem();
 
         setDefaultCloseOperation(javax.swing.WindowConstants.DISPOSE_ON_CLOSE);
         setTitle("Cullergrader");
@@ -342,6 +398,16 @@ public class PhotoGridFrame extends JFrame {
             }
         });
         jMenu.add(jMenuSetBestTake);
+        jMenu.add(jSeparator3);
+
+        jMenuToggleZoom.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_Z, 0));
+        jMenuToggleZoom.setText("Toggle 100% Zoom");
+        jMenuToggleZoom.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jMenuToggleZoomActionPerformed(evt);
+            }
+        });
+        jMenu.add(jMenuToggleZoom);
 
         jMenuBar.add(jMenu);
 
@@ -389,6 +455,10 @@ public class PhotoGridFrame extends JFrame {
         setBestTake();
     }//GEN-LAST:event_jMenuSetBestTakeActionPerformed
 
+    private void jMenuToggleZoomActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuToggleZoomActionPerformed
+        jImagePanel.toggleZoom();
+    }//GEN-LAST:event_jMenuToggleZoomActionPerformed
+
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private com.penguinpush.cullergrader.ui.components.JGridPanel jGridPanel;
@@ -400,7 +470,9 @@ public class PhotoGridFrame extends JFrame {
     private javax.swing.JMenuItem jMenuPreviousGroup;
     private javax.swing.JMenuItem jMenuPreviousPhoto;
     private javax.swing.JMenuItem jMenuSetBestTake;
+    private javax.swing.JMenuItem jMenuToggleZoom;
     private javax.swing.JPopupMenu.Separator jSeparator1;
     private javax.swing.JPopupMenu.Separator jSeparator2;
+    private javax.swing.JPopupMenu.Separator jSeparator3;
     // End of variables declaration//GEN-END:variables
 }
@@ -0,0 +1,73 @@
+package com.penguinpush.cullergrader.ui;
+
+/**
+ * Sizes the viewer's prefetch window from how the user is moving through photos and groups.
+ *
+ * Every keyboard step is timed. While steps keep going the same way, the window leans forward: it keeps
+ * half as many photos behind and stretches ahead with the step rate, up to MAX_SPEEDUP times the base size
+ * when an arrow key is held down. A pause, or a step along the other axis or back the other way, starts over
+ * with a symmetric window.
+ */
+class PrefetchPlanner {
+
+    enum Axis {
+        PHOTO,  // left/right, within a group
+        GROUP   // up/down, between groups
+    }
+
+    // Steps further apart than this don't count as one movement
+    private static final long IDLE_MILLIS = 1500;
+    // A step this often is the normal culling pace; faster stretches the window ahead
+    private static final float NORMAL_STEP_MILLIS = 400f;
+    private static final float MAX_SPEEDUP = 3f;
+    private static final float SMOOTHING = 0.5f;
+
+    private Axis axis;
+    private int direction;
+    private long lastStepTime;
+    private float stepMillis = NORMAL_STEP_MILLIS;  // smoothed time between steps
+
+    /**
+     * Records a step of the user's.
+     *
+     * @param direction 1 towards higher indices, -1 towards lower ones
+     */
+    void step(Axis axis, int direction) {
+        long now = System.currentTimeMillis();
+        long interval = now - lastStepTime;
+        if (axis != this.axis || direction != this.direction || interval > IDLE_MILLIS) {
+            this.axis = axis;
+            this.direction = direction;
+            stepMillis = NORMAL_STEP_MILLIS;
+        } else {
+            stepMillis += SMOOTHING * (interval - stepMillis);
+        }
+        lastStepTime = now;
+    }
+
+    /**
+     * The direction the user is moving along an axis, or 0 if they aren't.
+     */
+    int getDirection(Axis axis) {
+        boolean moving = axis == this.axis && System.currentTimeMillis() - lastStepTime <= IDLE_MILLIS;
+        return moving ? direction : 0;
+    }
+
+    /**
+     * How far to prefetch on each side of the current photo or group.
+     *
+     * @param baseSize The window size when standing still
+     * @return {before, after}: how many lower and higher indices to prefetch
+     */
+    int[] getWindow(Axis axis, int baseSize) {
+        int direction = getDirection(axis);
+        if (direction == 0) {
+            return new int[] {baseSize, baseSize};
+        }
+
+        float speedup = Math.min(MAX_SPEEDUP, Math.max(1f, NORMAL_STEP_MILLIS / Math.max(1f, stepMillis)));
+        int ahead = (int) Math.ceil(baseSize * speedup);
+        int behind = Math.min(baseSize, Math.max(1, baseSize / 2));
+        return direction > 0 ? new int[] {behind, ahead} : new int[] {ahead, behind};
+    }
+}
@@ -0,0 +1,158 @@
+package com.penguinpush.cullergrader.ui;
+
+import com.penguinpush.cullergrader.media.MemoryBudget;
+import com.penguinpush.cullergrader.media.Photo;
+import com.penguinpush.cullergrader.media.PreviewCache;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Viewer-resolution images around the photo being viewed, keyed by (group index, photo index).
+ *
+ * Photos are located by their position rather than searched for, so deciding whether an image is still inside
+ * the prefetch windows is O(1) however many groups the shoot has. The images are kept in least-recently-used
+ * order, which is the order they are shed in under memory pressure, and the last few photos shown are kept
+ * even when outside the windows. The map is guarded by the cache's monitor, the weight is an atomic so it can
+ * be read without locking.
+ */
+class ViewerImageCache implements MemoryBudget.Cache {
+
+    private static class Entry {
+        final BufferedImage image;
+        final long weight;
+
+        Entry(BufferedImage image) {
+            this.image = image;
+            this.weight = PreviewCache.weigh(image);
+        }
+    }
+
+    private final int recentSize;
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);  // access order
+    private final LinkedHashSet<Long> recentlyShown = new LinkedHashSet<>();  // oldest first
+    private Long shownKey;  // the photo on screen
+    private final AtomicLong weightBytes = new AtomicLong(0);
+
+    /**
+     * @param recentSize How many of the last photos shown are kept outside the windows
+     */
+    ViewerImageCache(int recentSize) {
+        this.recentSize = recentSize;
+    }
+
+    private static long keyOf(int groupIndex, int photoIndex) {
+        return ((long) groupIndex << 32) | (photoIndex & 0xFFFFFFFFL);
+    }
+
+    private static long keyOf(Photo photo) {
+        return keyOf(photo.getGroup() == null ? -1 : photo.getGroup().getIndex(), photo.getIndex());
+    }
+
+    private static int groupIndexOf(long key) {
+        return (int) (key >> 32);
+    }
+
+    private static int photoIndexOf(long key) {
+        return (int) key;
+    }
+
+    /**
+     * The cached image for a photo, or null; marks it as recently used.
+     */
+    synchronized BufferedImage get(Photo photo) {
+        Entry entry = entries.get(keyOf(photo));
+        return entry == null ? null : entry.image;
+    }
+
+    synchronized boolean contains(Photo photo) {
+        return entries.containsKey(keyOf(photo));
+    }
+
+    void put(Photo photo, BufferedImage image) {
+        synchronized (this) {
+            Entry entry = new Entry(image);
+            Entry previous = entries.put(keyOf(photo), entry);
+            weightBytes.addAndGet(entry.weight - (previous == null ? 0 : previous.weight));
+        }
+        MemoryBudget.rebalance();
+    }
+
+    /**
+     * Records that a photo was shown, so it stays cached for the next few photos even outside the windows.
+     */
+    synchronized void markShown(Photo photo) {
+        long key = keyOf(photo);
+        shownKey = key;
+        recentlyShown.remove(key);
+        recentlyShown.add(key);
+        while (recentlyShown.size() > recentSize) {
+            Iterator<Long> oldest = recentlyShown.iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    synchronized void clearRecentlyShown() {
+        recentlyShown.clear();
+    }
+
+    /**
+     * Evicts every image outside the windows: photos of the current group outside its photo window, unless
+     * recently shown, and photos of other groups outside the group window.
+     */
+    synchronized void retainWindows(int currentGroupIndex, int firstPhotoIndex, int lastPhotoIndex, int firstGroupIndex, int lastGroupIndex) {
+        for (Iterator<Map.Entry<Long, Entry>> iterator = entries.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<Long, Entry> entry = iterator.next();
+            long key = entry.getKey();
+            int groupIndex = groupIndexOf(key);
+
+            boolean keep;
+            if (groupIndex == currentGroupIndex) {
+                int photoIndex = photoIndexOf(key);
+                keep = (photoIndex >= firstPhotoIndex && photoIndex <= lastPhotoIndex) || recentlyShown.contains(key);
+            } else {
+                keep = groupIndex >= firstGroupIndex && groupIndex <= lastGroupIndex;
+            }
+
+            if (!keep) {
+                weightBytes.addAndGet(-entry.getValue().weight);
+                iterator.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        recentlyShown.clear();
+        shownKey = null;
+        weightBytes.set(0);
+    }
+
+    @Override
+    public long getHeapBytes() {
+        return weightBytes.get();
+    }
+
+    /**
+     * Evicts least recently used images first, never the one on screen.
+     */
+    @Override
+    public synchronized long shed(long bytes) {
+        long freed = 0;
+        for (Iterator<Map.Entry<Long, Entry>> iterator = entries.entrySet().iterator(); iterator.hasNext() && freed < bytes; ) {
+            Map.Entry<Long, Entry> entry = iterator.next();
+            if (entry.getKey().equals(shownKey)) {
+                continue;
+            }
+            freed += entry.getValue().weight;
+            iterator.remove();
+        }
+        weightBytes.addAndGet(-freed);
+        return freed;
+    }
+}
@@ -9,47 +9,117 @@ import com.penguinpush.cullergrader.config.ExecutionMode;
 import javax.swing.*;
 import java.awt.*;
 import java.io.File;
+import java.util.Objects;
 import java.awt.event.*;
 
 public class JGridMedia extends JLabel {
 
+    private static final AlphaComposite DIMMED_COMPOSITE = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.5f);
+    private static final AlphaComposite LABEL_COMPOSITE = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, AppConstants.GRIDMEDIA_LABEL_OPACITY);
+    private static final BasicStroke VIEWED_BORDER_STROKE = new BasicStroke(3);
+
     public GridMedia gridMedia;
+    private int index = -1;  // position in the grid, -1 while unbound
+    private ImageIcon placeholder;
     private Dimension dimensions;
     private String labelText;
-    private PhotoGridFrame photoGridFrame;
     private Photo thumbnailPhoto = new Photo(new File("placeholder.jpg"), 0, "", ExecutionMode.GUI);
     private ImageLoader imageLoader;
+    private ImageLoader.LoadHandle thumbnailLoad;
+    private int thumbnailPriority;  // what the thumbnail load was last given
     private boolean isCurrentlyViewed = false;
 
+    // Paint state, updated when it changes rather than worked out on every paint
+    private boolean dimmed = false;  // a group without selected takes, or a photo that isn't selected
+    private Font labelFont;
+    private Font labelFontSource;  // the component font labelFont was derived from
+    private int labelTextWidth = -1;  // -1 until measured
+    private int labelAscent;
+
+    // Keeps the paint state current while bound; registered with the group of the item shown
+    private PhotoGroup watchedGroup;
+    private final PhotoGroup.SelectionListener selectionListener = group -> {
+        if (SwingUtilities.isEventDispatchThread()) {
+            updateSelection();
+        } else {
+            SwingUtilities.invokeLater(this::updateSelection);
+        }
+    };
 
-    public JGridMedia(GridMedia gridMedia, ImageIcon placeholder, Dimension dimensions, ImageLoader imageLoader) {
+
+    /**
+     * Creates an empty cell; JGridPanel binds it to an item with bind() and recycles it for other items
+     * as the grid scrolls.
+     */
+    public JGridMedia(ImageIcon placeholder, Dimension dimensions, ImageLoader imageLoader) {
         super(placeholder);
-        this.gridMedia = gridMedia;
+        this.placeholder = placeholder;
         this.dimensions = dimensions;
         this.imageLoader = imageLoader;
 
         initComponentProperties();
     }
 
+    /**
+     * Shows an item at a grid position, with the placeholder until loadThumbnail() is called.
+     */
+    public void bind(GridMedia gridMedia, int index) {
+        unbind();
+        this.gridMedia = gridMedia;
+        this.index = index;
+        setToolTipText(gridMedia.getName() + ", " + gridMedia.getTooltip());
+        setLabelText(gridMedia instanceof PhotoGroup ? Integer.toString(gridMedia.getSize()) : null);
+        updateSelection();
+
+        watchedGroup = gridMedia instanceof PhotoGroup ? (PhotoGroup) gridMedia
+            : gridMedia instanceof Photo ? ((Photo) gridMedia).getGroup() : null;
+        if (watchedGroup != null) {
+            watchedGroup.addSelectionListener(selectionListener);
+        }
+    }
+
+    /**
+     * Frees the cell for reuse, dropping its thumbnail and any load still pending for it.
+     */
+    public void unbind() {
+        if (thumbnailLoad != null) {
+            thumbnailLoad.cancel();
+            thumbnailLoad = null;
+        }
+        if (watchedGroup != null) {
+            watchedGroup.removeSelectionListener(selectionListener);
+            watchedGroup = null;
+        }
+        gridMedia = null;
+        index = -1;
+        isCurrentlyViewed = false;
+        dimmed = false;
+        setLabelText(null);
+        setIcon(placeholder);
+        setToolTipText(null);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public Dimension getDimensions() {
+        return dimensions;
+    }
+
     private void initComponentProperties() {
         this.setPreferredSize(dimensions);
-        this.setToolTipText(gridMedia.getName() + ", " + gridMedia.getTooltip());
-
-        SwingUtilities.invokeLater(() -> {
-            if (gridMedia instanceof PhotoGroup) {
-                photoGridFrame = ((GroupGridFrame) SwingUtilities.getWindowAncestor(this)).photoGridFrame;
-            } else if (gridMedia instanceof Photo) {
-                photoGridFrame = (PhotoGridFrame) SwingUtilities.getWindowAncestor(this);
-            }
-        });
+        this.setSize(dimensions);
 
         this.addMouseListener(new MouseAdapter() {
             public void mouseClicked(MouseEvent e) {
                 SwingUtilities.invokeLater(() -> {
-                    if (gridMedia instanceof PhotoGroup) {
-                        photoGridFrame.updateGrid((PhotoGroup) gridMedia);
-                    } else if (gridMedia instanceof Photo) {
-                        photoGridFrame.setImagePanelPhoto((Photo) gridMedia);
+                    // Looked up on each click, since cells are reused across reloads that replace the photo grid
+                    Window window = SwingUtilities.getWindowAncestor(JGridMedia.this);
+                    if (gridMedia instanceof PhotoGroup && window instanceof GroupGridFrame) {
+                        ((GroupGridFrame) window).photoGridFrame.updateGrid((PhotoGroup) gridMedia);
+                    } else if (gridMedia instanceof Photo && window instanceof PhotoGridFrame) {
+                        ((PhotoGridFrame) window).setImagePanelPhoto((Photo) gridMedia);
                     }
                 });
             }
@@ -57,6 +127,12 @@ public class JGridMedia extends JLabel {
     }
 
     public void loadThumbnail(int priority) {
+        thumbnailPriority = priority;
+        if (thumbnailLoad != null) {
+            thumbnailLoad.cancel();
+            thumbnailLoad = null;
+        }
+
         if (gridMedia instanceof Photo) {
             thumbnailPhoto = (Photo) gridMedia;
         } else if (gridMedia instanceof PhotoGroup) {
@@ -66,17 +142,47 @@ public class JGridMedia extends JLabel {
         }
 
         if (thumbnailPhoto != null) {
-            imageLoader.loadImage(thumbnailPhoto, priority, false, (image) -> {
+            ImageIcon cachedIcon = GridIcons.getCached(thumbnailPhoto, dimensions.width, dimensions.height);
+            if (cachedIcon != null) {
+                setIcon(cachedIcon);
+                return;
+            }
+
+            GridMedia boundMedia = gridMedia;
+            Photo photo = thumbnailPhoto;
+            thumbnailLoad = imageLoader.loadImage(thumbnailPhoto, priority, false, (image) -> {
+                if (image == null) {
+                    return;
+                }
+                // Scaled here on the loader thread, so the EDT only draws it
+                ImageIcon scaledIcon = GridIcons.create(photo, image, dimensions.width, dimensions.height);
                 SwingUtilities.invokeLater(() -> {
-                    ImageIcon scaledIcon = PhotoUtils.getScaledIcon(image, dimensions.width, dimensions.height);
-                    setIcon(scaledIcon);
+                    // The cell may have been recycled for another item meanwhile
+                    if (gridMedia == boundMedia) {
+                        setIcon(scaledIcon);
+                    }
                 });
             });
         }
     }
 
+    /**
+     * Re-prioritises the thumbnail load, if the priority changed; a load that already finished is unaffected.
+     */
+    public void setThumbnailPriority(int priority) {
+        if (priority == thumbnailPriority || thumbnailLoad == null) {
+            return;
+        }
+        thumbnailPriority = priority;
+        imageLoader.updatePriority(thumbnailPhoto, priority);
+    }
+
     public void setLabelText(String labelText) {
+        if (Objects.equals(this.labelText, labelText)) {
+            return;
+        }
         this.labelText = labelText;
+        labelTextWidth = -1;
         repaint();
     }
 
@@ -84,15 +190,25 @@ public class JGridMedia extends JLabel {
         return labelText;
     }
 
-    public void updateBestTake() {
-        if (gridMedia instanceof Photo) {
+    /**
+     * Re-reads the item's selection state: whether the cell is dimmed, and a photo's selected label.
+     * Called when the group's selections change; painting uses the state as of the last call.
+     */
+    public void updateSelection() {
+        boolean dimmed = false;
+        if (gridMedia instanceof PhotoGroup) {
+            // Apply 50% opacity to groups with 0 selections
+            dimmed = ((PhotoGroup) gridMedia).getSelectedTakes().isEmpty();
+        } else if (gridMedia instanceof Photo) {
+            // Apply 50% opacity to photos that are not selected
             Photo photo = (Photo) gridMedia;
+            dimmed = !photo.isSelected();
+            setLabelText(photo.isSelected() ? AppConstants.SELECTED_LABEL_TEXT : null);
+        }
 
-            if (photo.isSelected()) {
-                setLabelText(AppConstants.SELECTED_LABEL_TEXT);
-            } else {
-                setLabelText(null);
-            }
+        if (dimmed != this.dimmed) {
+            this.dimmed = dimmed;
+            repaint();
         }
     }
 
@@ -101,85 +217,78 @@ public class JGridMedia extends JLabel {
     }
 
     public void setCurrentlyViewed(boolean currentlyViewed) {
-        this.isCurrentlyViewed = currentlyViewed;
-        repaint();
+        if (isCurrentlyViewed != currentlyViewed) {
+            this.isCurrentlyViewed = currentlyViewed;
+            repaint();
+        }
     }
 
     public boolean isCurrentlyViewed() {
         return isCurrentlyViewed;
     }
 
+    // Draws on the Graphics it is given, restoring whatever it changes, instead of creating copies
     @Override
     protected void paintComponent(Graphics g) {
-        // Apply 50% opacity to groups with 0 selections
-        if (gridMedia instanceof PhotoGroup) {
-            PhotoGroup photoGroup = (PhotoGroup) gridMedia;
-            if (photoGroup.getSelectedTakes().isEmpty()) {
-                Graphics2D g2d = (Graphics2D) g.create();
-                g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.5f));
-                super.paintComponent(g2d);
-                g2d.dispose();
-            } else {
-                super.paintComponent(g);
-            }
-        } else if (gridMedia instanceof Photo) {
-            // Apply 50% opacity to photos that are not selected
-            Photo photo = (Photo) gridMedia;
-            if (!photo.isSelected()) {
-                Graphics2D g2d = (Graphics2D) g.create();
-                g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.5f));
-                super.paintComponent(g2d);
-                g2d.dispose();
-            } else {
-                super.paintComponent(g);
-            }
+        Graphics2D g2d = (Graphics2D) g;
+        Composite composite = g2d.getComposite();
+
+        if (dimmed) {
+            g2d.setComposite(DIMMED_COMPOSITE);
+            super.paintComponent(g2d);
+            g2d.setComposite(composite);
         } else {
-            super.paintComponent(g);
+            super.paintComponent(g2d);
         }
 
-        updateBestTake();
-
+        Color color = g2d.getColor();
         // Draw 3px red border if this is the currently viewed photo
         if (isCurrentlyViewed && gridMedia instanceof Photo) {
-            Graphics2D g2d = (Graphics2D) g.create();
+            Stroke stroke = g2d.getStroke();
             g2d.setColor(Color.RED);
-            g2d.setStroke(new BasicStroke(3));
+            g2d.setStroke(VIEWED_BORDER_STROKE);
             g2d.drawRect(1, 1, getWidth() - 3, getHeight() - 3);
-            g2d.dispose();
+            g2d.setStroke(stroke);
         }
 
         if (labelText != null) {
-            Graphics2D graphics2d = (Graphics2D) g.create();
-            drawLabelText(graphics2d, labelText);
-            graphics2d.dispose();
+            Font font = g2d.getFont();
+            drawLabelText(g2d, labelText);
+            g2d.setComposite(composite);
+            g2d.setFont(font);
         }
+        g2d.setColor(color);
     }
 
     private void drawLabelText(Graphics2D graphics2d, String labelText) {
-        float labelFontSize = AppConstants.GRIDMEDIA_LABEL_FONT_SIZE;
         int labelHeight = AppConstants.GRIDMEDIA_LABEL_HEIGHT;
-        float labelOpacity = AppConstants.GRIDMEDIA_LABEL_OPACITY;
-
         Color textColor = AppConstants.GRIDMEDIA_LABEL_TEXT_COLOR;
         Color backgroundColor = AppConstants.GRIDMEDIA_LABEL_BACKGROUND_COLOR;
 
-        graphics2d.setFont(graphics2d.getFont().deriveFont(labelFontSize)); // Set font size
-        FontMetrics fontMetrics = graphics2d.getFontMetrics();
-        String text = labelText;
-        int textWidth = fontMetrics.stringWidth(text);
-        int padding = (int) labelFontSize / 2;
+        // Derived and measured once per label and font, not on every paint
+        if (labelFont == null || labelFontSource != getFont()) {
+            labelFontSource = getFont();
+            labelFont = labelFontSource.deriveFont(AppConstants.GRIDMEDIA_LABEL_FONT_SIZE);
+            labelTextWidth = -1;
+        }
+        if (labelTextWidth < 0) {
+            FontMetrics fontMetrics = getFontMetrics(labelFont);
+            labelTextWidth = fontMetrics.stringWidth(labelText);
+            labelAscent = fontMetrics.getAscent();
+        }
+        int padding = (int) AppConstants.GRIDMEDIA_LABEL_FONT_SIZE / 2;
 
-        int x = getWidth() - (textWidth + padding);
-        int y = getHeight() - (labelHeight - fontMetrics.getAscent());
+        int x = getWidth() - (labelTextWidth + padding);
+        int y = getHeight() - (labelHeight - labelAscent);
 
-        graphics2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, labelOpacity));
+        graphics2d.setComposite(LABEL_COMPOSITE);
         graphics2d.setColor(backgroundColor);
         graphics2d.fillRect(x - padding, getHeight() - labelHeight, getWidth(), labelHeight);
 
         graphics2d.setComposite(AlphaComposite.SrcOver);
         graphics2d.setColor(textColor);
-        graphics2d.setFont(graphics2d.getFont().deriveFont(labelFontSize));
+        graphics2d.setFont(labelFont);
 
-        graphics2d.drawString(text, x, y);
+        graphics2d.drawString(labelText, x, y);
     }
 }
@@ -7,12 +7,41 @@ import com.penguinpush.cullergrader.media.*;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-
+import java.util.Map;
+
+/**
+ * A scrolling grid of groups or photos. Only the cells in view, plus a margin of one row (or, for a single row,
+ * one column) on each side, exist as components; cells that scroll out are unbound, their thumbnail loads
+ * cancelled, and reused for the cells scrolling in. Thumbnails are only requested for existing cells, so a
+ * folder with thousands of groups opens as quickly as one with a dozen. While scrolling, the cells' thumbnail
+ * priorities follow the view at most once a frame.
+ */
 public class JGridPanel extends JPanel {
 
+    private static final int MARGIN_CELLS = 1;
+    private static final int MAX_SPARE_CELLS = 64;
+    private static final int PRIORITY_UPDATE_DELAY_MS = 16;  // about a frame; scroll events in between share one update
+
     boolean singleRow = false;
     private ImageLoader imageLoader;
+    private ImageIcon placeholderIcon;
+
+    private List<GridMedia> gridMedias = new ArrayList<>();
+    private Dimension cellSize = new Dimension(0, 0);
+    private int onscreenPriority;
+    private int offscreenPriority;
+    private int visibleFirst = 0;  // index range of the cells in view, as of the last updateVisibleCells()
+    private int visibleLast = -1;
+    private Timer priorityTimer;
+    private Photo currentlyViewedPhoto;
+    private final Map<Integer, JGridMedia> cells = new HashMap<>();  // materialised cells by grid index
+    private final Deque<JGridMedia> spareCells = new ArrayDeque<>();
 
     public JGridPanel() {
         super();
@@ -22,6 +51,13 @@ public class JGridPanel extends JPanel {
         this.imageLoader = imageLoader;
         initComponents();
         initComponentProperties();
+
+        priorityTimer = new Timer(PRIORITY_UPDATE_DELAY_MS, e -> applyPriorities());
+        priorityTimer.setRepeats(false);
+        gridScrollPane.getViewport().addChangeListener(e -> {
+            updateVisibleCells();
+            schedulePriorityUpdate();
+        });
     }
 
     public void setSingleRow(boolean singleRow) {
@@ -38,81 +74,146 @@ public class JGridPanel extends JPanel {
     }
 
     public void populateGrid(List<GridMedia> gridMedias, int width, int height, int priority) {
+        for (JGridMedia cell : cells.values()) {
+            recycle(cell);
+        }
+        cells.clear();
         gridPanel.removeAll();
 
-        ImageIcon placeholderIcon = new ImageIcon(AppConstants.PLACEHOLDER_THUMBNAIL_PATH);
+        if (placeholderIcon == null) {
+            placeholderIcon = new ImageIcon(AppConstants.PLACEHOLDER_THUMBNAIL_PATH);
+        }
+        if (cellSize.width != width || cellSize.height != height) {
+            spareCells.clear();
+            cellSize = new Dimension(width, height);
+        }
 
-        for (GridMedia gridMedia : gridMedias) {
-            JGridMedia jGridMedia = new JGridMedia(gridMedia, placeholderIcon, new Dimension(width, height), imageLoader);
-            gridPanel.add(jGridMedia);
+        this.gridMedias = new ArrayList<>(gridMedias);
+        onscreenPriority = priority;
+        offscreenPriority = priority;
+        getWrapLayout().setGrid(gridMedias.size(), width, height);
 
-            if (gridMedia instanceof PhotoGroup) {
-                jGridMedia.setLabelText(Integer.toString(gridMedia.getSize()));
-            }
+        SwingUtilities.invokeLater(() -> refreshGrid());
+    }
 
-            // load real thumbnail in background
-            SwingUtilities.invokeLater(() -> jGridMedia.loadThumbnail(priority));
+    /**
+     * Adds items to the end of the grid, e.g. groups arriving while a folder is still loading.
+     */
+    public void appendToGrid(List<GridMedia> moreGridMedias) {
+        gridMedias.addAll(moreGridMedias);
+        getWrapLayout().setGrid(gridMedias.size(), cellSize.width, cellSize.height);
+        refreshGrid();
+    }
+
+    /**
+     * Sets the thumbnail priorities for cells in and out of view. The grid keeps them up to date as it scrolls.
+     */
+    public void updatePriorities(int ONSCREEN_PRIORITY, int OFFSCREEN_PRIORITY) {
+        onscreenPriority = ONSCREEN_PRIORITY;
+        offscreenPriority = OFFSCREEN_PRIORITY;
+        schedulePriorityUpdate();
+    }
+
+    private void schedulePriorityUpdate() {
+        if (priorityTimer != null && !priorityTimer.isRunning()) {
+            priorityTimer.start();
         }
+    }
 
-        SwingUtilities.invokeLater(() -> refreshGrid());
+    // Only cells whose priority changed reach the loader, so this costs the same for any number of items
+    private void applyPriorities() {
+        for (Map.Entry<Integer, JGridMedia> cell : cells.entrySet()) {
+            cell.getValue().setThumbnailPriority(getPriority(cell.getKey()));
+        }
     }
 
-    public void repopulateGrid(int priority) {
-        for (Component component : gridPanel.getComponents()) {
-            if (component instanceof JGridMedia) {
-                JGridMedia jGridMedia = (JGridMedia) component;
+    public void setCurrentlyViewedPhoto(Photo currentPhoto) {
+        currentlyViewedPhoto = currentPhoto;
+        for (JGridMedia jGridMedia : cells.values()) {
+            // Set border on the matching photo thumbnail
+            jGridMedia.setCurrentlyViewed(isCurrentlyViewed(jGridMedia.gridMedia));
+        }
+    }
+
+    // Binds cells for the items in and around view, and frees the ones that scrolled away
+    private void updateVisibleCells() {
+        if (imageLoader == null) {
+            return;
+        }
 
-                if (jGridMedia.gridMedia instanceof PhotoGroup) {
-                    SwingUtilities.invokeLater(() -> jGridMedia.loadThumbnail(priority));
-                }
+        Rectangle visibleRect = gridScrollPane.getViewport().getViewRect();
+        int[] visibleRange = getWrapLayout().getIndexRange(visibleRect);
+        visibleFirst = visibleRange[0];
+        visibleLast = visibleRange[1];
+
+        Rectangle area = new Rectangle(visibleRect);
+        if (singleRow) {
+            area.grow(cellSize.width * MARGIN_CELLS, 0);
+        } else {
+            area.grow(0, cellSize.height * MARGIN_CELLS);
+        }
+        int[] range = getWrapLayout().getIndexRange(area);
+        int first = range[0];
+        int last = Math.min(range[1], gridMedias.size() - 1);
+
+        boolean changed = false;
+        Iterator<Map.Entry<Integer, JGridMedia>> iterator = cells.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, JGridMedia> entry = iterator.next();
+            if (entry.getKey() < first || entry.getKey() > last) {
+                gridPanel.remove(entry.getValue());
+                recycle(entry.getValue());
+                iterator.remove();
+                changed = true;
             }
         }
-    }
 
-    public void updatePriorities(int ONSCREEN_PRIORITY, int OFFSCREEN_PRIORITY) {
-        Rectangle visibleRect = gridPanel.getVisibleRect();
-
-        for (Component component : gridPanel.getComponents()) {
-            if (component instanceof JGridMedia) {
-                JGridMedia jGridMedia = (JGridMedia) component;
-                Rectangle mediaBounds = jGridMedia.getBounds();
-
-                int priority;
-                if (visibleRect.intersects(mediaBounds)) {
-                    priority = ONSCREEN_PRIORITY;
-                } else {
-                    priority = OFFSCREEN_PRIORITY;
-                }
-
-                if (jGridMedia.gridMedia instanceof Photo) {
-                    Photo photo = (Photo) jGridMedia.gridMedia;
-                    imageLoader.updatePriority(photo, priority);
-                } else if (jGridMedia.gridMedia instanceof PhotoGroup) {
-                    PhotoGroup photoGroup = (PhotoGroup) jGridMedia.gridMedia;
-                    // Update priority for first photo in group (thumbnail)
-                    if (!photoGroup.getPhotos().isEmpty()) {
-                        Photo firstPhoto = photoGroup.getPhotos().get(0);
-                        imageLoader.updatePriority(firstPhoto, priority);
-                    }
-                }
+        for (int index = first; index <= last; index++) {
+            if (cells.containsKey(index)) {
+                continue;
+            }
+            JGridMedia jGridMedia = spareCells.poll();
+            if (jGridMedia == null) {
+                jGridMedia = new JGridMedia(placeholderIcon, cellSize, imageLoader);
             }
+            GridMedia gridMedia = gridMedias.get(index);
+            jGridMedia.bind(gridMedia, index);
+            jGridMedia.setCurrentlyViewed(isCurrentlyViewed(gridMedia));
+            jGridMedia.setBounds(getWrapLayout().getCellBounds(index));
+            gridPanel.add(jGridMedia);
+            cells.put(index, jGridMedia);
+            jGridMedia.loadThumbnail(getPriority(index));
+            changed = true;
+        }
+
+        if (changed) {
+            gridPanel.repaint();
         }
     }
 
-    public void setCurrentlyViewedPhoto(Photo currentPhoto) {
-        for (Component component : gridPanel.getComponents()) {
-            if (component instanceof JGridMedia) {
-                JGridMedia jGridMedia = (JGridMedia) component;
-                // Set border on the matching photo thumbnail
-                boolean isCurrentlyViewed = jGridMedia.gridMedia instanceof Photo
-                        && jGridMedia.gridMedia == currentPhoto;
-                jGridMedia.setCurrentlyViewed(isCurrentlyViewed);
-            }
+    private void recycle(JGridMedia jGridMedia) {
+        jGridMedia.unbind();
+        if (spareCells.size() < MAX_SPARE_CELLS) {
+            spareCells.push(jGridMedia);
         }
     }
 
+    private int getPriority(int index) {
+        return index >= visibleFirst && index <= visibleLast ? onscreenPriority : offscreenPriority;
+    }
+
+    private boolean isCurrentlyViewed(GridMedia gridMedia) {
+        return gridMedia instanceof Photo && gridMedia == currentlyViewedPhoto;
+    }
+
+    private WrapLayout getWrapLayout() {
+        return (WrapLayout) gridPanel.getLayout();
+    }
+
     private void initComponentProperties() {
-        gridPanel.setLayout(new WrapLayout(FlowLayout.LEFT, singleRow));
+        WrapLayout wrapLayout = new WrapLayout(FlowLayout.LEFT, singleRow);
+        wrapLayout.setGrid(gridMedias.size(), cellSize.width, cellSize.height);
+        gridPanel.setLayout(wrapLayout);
 
         gridScrollPane.addComponentListener(new ComponentAdapter() {
             public void componentResized(ComponentEvent e) {
@@ -131,10 +232,15 @@ public class JGridPanel extends JPanel {
 
     public void refreshGrid() {
         Dimension preferredSize = gridPanel.getLayout().preferredLayoutSize(gridPanel);
-        gridPanel.setPreferredSize(preferredSize);
-        gridScrollPane.revalidate();
+        // The scroll pane only needs laying out again if the grid's size changed, e.g. not on a height-only resize
+        if (!preferredSize.equals(gridPanel.getPreferredSize())) {
+            gridPanel.setPreferredSize(preferredSize);
+            gridScrollPane.revalidate();
+        }
         gridPanel.revalidate();
         gridPanel.repaint();
+        // The columns may have changed, which moves every cell
+        updateVisibleCells();
     }
 
     public JScrollPane getGridScrollPane() {
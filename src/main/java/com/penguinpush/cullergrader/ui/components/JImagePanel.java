@@ -1,46 +1,149 @@
-
 package com.penguinpush.cullergrader.ui.components;
 
 import javax.swing.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
 import java.awt.image.BufferedImage;
 import java.awt.*;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 import com.penguinpush.cullergrader.logic.ImageLoader;
 import com.penguinpush.cullergrader.media.Photo;
+import com.penguinpush.cullergrader.media.PhotoUtils;
 import com.penguinpush.cullergrader.config.AppConstants;
 
 public class JImagePanel extends JPanel {
     private BufferedImage image;
+    private int imageOrientation = 1;  // EXIF orientation still to apply when drawing image; full images arrive unrotated
     private Photo photo;
     private ImageLoader imageLoader;
+    private ImageLoader.LoadGeneration loadGeneration;  // loads for the photo currently shown
+
+    // 100% zoom: one image pixel per screen pixel, drawn from region-decoded tiles of the current photo
+    private boolean zoomed = false;
+    private double zoomCenterX = 0.5;  // view center as a fraction of the upright image, kept when switching photos
+    private double zoomCenterY = 0.5;
+    private Dimension sourceSize;      // stored (unrotated) size of the current photo, null if it can't be tiled
+    private int orientation = 1;
+    private ImageLoader.LoadGeneration tileGeneration;  // tile loads for the current photo
+    private final Map<Point, ImageLoader.LoadHandle> pendingTiles = new HashMap<>();
+    private final Map<Point, BufferedImage> tiles = new LinkedHashMap<Point, BufferedImage>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Point, BufferedImage> eldest) {
+            return size() > AppConstants.ZOOM_TILE_CACHE_SIZE;
+        }
+    };
+    private Point dragStart;
 
     public JImagePanel() {
         super();
+
+        MouseAdapter mouseHandler = new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2 && SwingUtilities.isLeftMouseButton(e)) {
+                    if (!zoomed) {
+                        zoomAt(e.getPoint());
+                    }
+                    toggleZoom();
+                }
+            }
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dragStart = e.getPoint();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (dragStart != null && zoomed && sourceSize != null) {
+                    pan(e.getX() - dragStart.x, e.getY() - dragStart.y);
+                    dragStart = e.getPoint();
+                }
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                dragStart = null;
+            }
+        };
+        addMouseListener(mouseHandler);
+        addMouseMotionListener(mouseHandler);
+
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                requestTiles();
+            }
+        });
     }
-    
+
     public void init(ImageLoader imageLoader) {
         this.imageLoader = imageLoader;
     }
 
     public void setPhoto(Photo photo) {
         this.photo = photo;
-        imageLoader.loadImage(photo, AppConstants.IMAGE_PRIORITY, false, (imagePreview) -> {
-            SwingUtilities.invokeLater(() -> setImage(imagePreview));
+        ImageLoader.LoadGeneration staleGeneration = loadGeneration;
+        ImageLoader.LoadGeneration generation = imageLoader.newGeneration();
+        loadGeneration = generation;
+
+        imageLoader.loadImage(photo, AppConstants.IMAGE_PRIORITY, false, generation, (imagePreview) -> {
+            SwingUtilities.invokeLater(() -> setImageIfCurrent(photo, imagePreview, 1));
 
-            imageLoader.loadImage(photo, AppConstants.MAX_PRIORITY, true, (imageFull) -> {
-                SwingUtilities.invokeLater(() -> setImage(imageFull));
+            imageLoader.loadFullImage(photo, AppConstants.MAX_PRIORITY, getDecodeSize(), generation, (imageFull) -> {
+                int fullOrientation = photo.getOrientation();
+                SwingUtilities.invokeLater(() -> setImageIfCurrent(photo, imageFull, fullOrientation));
             });
         });
+
+        // drop whatever is still loading for the previous photo (after queueing, so shared loads survive)
+        if (staleGeneration != null) {
+            staleGeneration.cancel();
+        }
+        resetTiles();
+    }
+
+    private void setImageIfCurrent(Photo photo, BufferedImage image, int orientation) {
+        if (this.photo == photo) {
+            setImage(image, orientation);
+        }
     }
 
     public void setImage(BufferedImage image) {
+        setImage(image, 1);
+    }
+
+    /**
+     * @param orientation EXIF orientation to apply when drawing, for images that are still as stored
+     */
+    public void setImage(BufferedImage image, int orientation) {
         this.image = image;
+        this.imageOrientation = orientation;
         repaint();
     }
 
+    /**
+     * Shows a photo with an already loaded full image, which is as stored (see ImageLoader.loadFullImage).
+     */
     public void setPhotoAndImage(Photo photo, BufferedImage image) {
+        if (loadGeneration != null) {
+            loadGeneration.cancel();
+            loadGeneration = null;
+        }
         this.photo = photo;
         this.image = image;
+        this.imageOrientation = photo.getOrientation();
+        resetTiles();
         repaint();
     }
 
@@ -48,24 +151,253 @@ public class JImagePanel extends JPanel {
         return photo;
     }
 
-    @Override
-    protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        if (image == null) return;
+    public boolean isZoomed() {
+        return zoomed;
+    }
 
-        // Cast to Graphics2D and enable high-quality rendering
-        Graphics2D g2d = (Graphics2D) g;
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-                             RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-        g2d.setRenderingHint(RenderingHints.KEY_RENDERING,
-                             RenderingHints.VALUE_RENDER_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-                             RenderingHints.VALUE_ANTIALIAS_ON);
+    /**
+     * Switches between fit-to-panel and 100% zoom. While zoomed, switching photos keeps the same region in view,
+     * so consecutive burst frames can be compared at 1:1. Photos that can't be region-decoded stay fitted.
+     */
+    public void toggleZoom() {
+        if (zoomed) {
+            zoomed = false;
+            resetTiles();
+            repaint();
+            return;
+        }
+        if (photo == null) {
+            return;
+        }
+
+        Photo zoomPhoto = photo;
+        withStoredSize(zoomPhoto, () -> {
+            if (zoomed || zoomPhoto.getStoredSize() == null) {
+                return;  // e.g. RAW files, which are only shown through their embedded previews
+            }
+            zoomed = true;
+            resetTiles();
+            repaint();
+        });
+    }
+
+    // Runs an action on the EDT once the photo's stored size is known, reading the file header on a background
+    // thread if needed; skipped if another photo is shown by then
+    private void withStoredSize(Photo photo, Runnable action) {
+        if (photo.isStoredSizeRead()) {
+            action.run();
+            return;
+        }
+
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() {
+                photo.getStoredSize();
+                photo.getOrientation();
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                if (JImagePanel.this.photo == photo) {
+                    action.run();
+                }
+            }
+        }.execute();
+    }
+
+    // Panel size in physical pixels (HiDPI aware), the largest the viewer will ever draw an image;
+    // falls back to the screen size before the panel has been laid out
+    public Dimension getDecodeSize() {
+        int width = getWidth();
+        int height = getHeight();
+        if (width <= 0 || height <= 0) {
+            Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
+            width = screenSize.width;
+            height = screenSize.height;
+        }
+
+        double scaleX = 1.0;
+        double scaleY = 1.0;
+        GraphicsConfiguration configuration = getGraphicsConfiguration();
+        if (configuration != null) {
+            AffineTransform transform = configuration.getDefaultTransform();
+            scaleX = transform.getScaleX();
+            scaleY = transform.getScaleY();
+        }
+        return new Dimension((int) Math.ceil(width * scaleX), (int) Math.ceil(height * scaleY));
+    }
+
+    private double getDeviceScale() {
+        GraphicsConfiguration configuration = getGraphicsConfiguration();
+        return configuration == null ? 1.0 : configuration.getDefaultTransform().getScaleX();
+    }
+
+    // Drops the tiles of the previous photo and, if zoomed, starts decoding the same region of the current one
+    // once its size is known; until then it's drawn fitted
+    private void resetTiles() {
+        if (tileGeneration != null) {
+            tileGeneration.cancel();
+            tileGeneration = null;
+        }
+        tiles.clear();
+        pendingTiles.clear();
+        sourceSize = null;
+
+        if (!zoomed || photo == null) {
+            return;
+        }
+        withStoredSize(photo, this::startTiles);
+    }
+
+    private void startTiles() {
+        if (!zoomed || tileGeneration != null) {
+            return;
+        }
+        sourceSize = photo.getStoredSize();
+        if (sourceSize == null) {
+            return;  // e.g. RAW files, which are only shown through their embedded previews
+        }
+        orientation = photo.getOrientation();
+        tileGeneration = imageLoader.newGeneration();
+        requestTiles();
+        repaint();
+    }
+
+    // Queues the visible tiles plus a ring around them, and cancels pending tiles that scrolled out of that area
+    private void requestTiles() {
+        if (!zoomed || sourceSize == null || tileGeneration == null) {
+            return;
+        }
+
+        int tileSize = AppConstants.ZOOM_TILE_SIZE;
+        int columns = (sourceSize.width + tileSize - 1) / tileSize;
+        int rows = (sourceSize.height + tileSize - 1) / tileSize;
+        Rectangle visible = getVisibleSourceRegion();
+        if (visible.isEmpty()) {
+            return;
+        }
+
+        int firstColumn = visible.x / tileSize;
+        int lastColumn = (visible.x + visible.width - 1) / tileSize;
+        int firstRow = visible.y / tileSize;
+        int lastRow = (visible.y + visible.height - 1) / tileSize;
+
+        Set<Point> wanted = new HashSet<>();
+        for (int row = Math.max(0, firstRow - 1); row <= Math.min(rows - 1, lastRow + 1); row++) {
+            for (int column = Math.max(0, firstColumn - 1); column <= Math.min(columns - 1, lastColumn + 1); column++) {
+                Point tile = new Point(column, row);
+                wanted.add(tile);
+                // get() also marks cached tiles around the view as recently used
+                if (tiles.get(tile) != null || pendingTiles.containsKey(tile)) {
+                    continue;
+                }
+
+                boolean onScreen = column >= firstColumn && column <= lastColumn && row >= firstRow && row <= lastRow;
+                int priority = onScreen ? AppConstants.MAX_PRIORITY : AppConstants.IMAGE_PRIORITY;
+                Rectangle region = new Rectangle(column * tileSize, row * tileSize, tileSize, tileSize);
+
+                Photo tilePhoto = photo;
+                ImageLoader.LoadGeneration generation = tileGeneration;
+                pendingTiles.put(tile, imageLoader.loadTile(photo, region, priority, generation, (tileImage) -> {
+                    SwingUtilities.invokeLater(() -> setTile(tilePhoto, generation, tile, tileImage));
+                }));
+            }
+        }
+
+        Iterator<Map.Entry<Point, ImageLoader.LoadHandle>> iterator = pendingTiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Point, ImageLoader.LoadHandle> entry = iterator.next();
+            if (!wanted.contains(entry.getKey())) {
+                entry.getValue().cancel();
+                iterator.remove();
+            }
+        }
+    }
+
+    private void setTile(Photo photo, ImageLoader.LoadGeneration generation, Point tile, BufferedImage tileImage) {
+        if (this.photo != photo || tileGeneration != generation) {
+            return;
+        }
+        pendingTiles.remove(tile);
+        if (tileImage != null) {
+            tiles.put(tile, tileImage);
+            repaint();
+        }
+    }
+
+    private void pan(int dx, int dy) {
+        double scale = getDeviceScale();
+        zoomCenterX -= dx * scale / getUprightWidth();
+        zoomCenterY -= dy * scale / getUprightHeight();
+        clampZoomCenter();
+        requestTiles();
+        repaint();
+    }
+
+    // Centers the zoomed view on a point of the fitted image
+    private void zoomAt(Point point) {
+        Rectangle bounds = getFitBounds();
+        if (bounds == null || !bounds.contains(point)) {
+            return;
+        }
+        zoomCenterX = (point.x - bounds.x) / (double) bounds.width;
+        zoomCenterY = (point.y - bounds.y) / (double) bounds.height;
+    }
+
+    private int getUprightWidth() {
+        return (orientation >= 5 && orientation <= 8) ? sourceSize.height : sourceSize.width;
+    }
+
+    private int getUprightHeight() {
+        return (orientation >= 5 && orientation <= 8) ? sourceSize.width : sourceSize.height;
+    }
+
+    // Keeps the view inside the image, or centered on an axis where the image is smaller than the panel
+    private void clampZoomCenter() {
+        double scale = getDeviceScale();
+        double halfWidth = getWidth() * scale / 2.0 / getUprightWidth();
+        double halfHeight = getHeight() * scale / 2.0 / getUprightHeight();
+        zoomCenterX = halfWidth >= 0.5 ? 0.5 : Math.max(halfWidth, Math.min(1.0 - halfWidth, zoomCenterX));
+        zoomCenterY = halfHeight >= 0.5 ? 0.5 : Math.max(halfHeight, Math.min(1.0 - halfHeight, zoomCenterY));
+    }
+
+    // Maps upright image pixels to panel coordinates at 100% zoom
+    private AffineTransform getZoomTransform() {
+        clampZoomCenter();
+        double scale = 1.0 / getDeviceScale();
+        AffineTransform transform = new AffineTransform();
+        transform.translate(getWidth() / 2.0, getHeight() / 2.0);
+        transform.scale(scale, scale);
+        transform.translate(-zoomCenterX * getUprightWidth(), -zoomCenterY * getUprightHeight());
+        return transform;
+    }
+
+    // The part of the stored image currently on screen
+    private Rectangle getVisibleSourceRegion() {
+        AffineTransform transform = getZoomTransform();
+        transform.concatenate(PhotoUtils.getExifTransform(orientation, sourceSize.width, sourceSize.height));
+        try {
+            Rectangle region = transform.createInverse()
+                    .createTransformedShape(new Rectangle(0, 0, getWidth(), getHeight()))
+                    .getBounds();
+            return region.intersection(new Rectangle(sourceSize));
+        } catch (NoninvertibleTransformException e) {
+            return new Rectangle();
+        }
+    }
+
+    // Where the image is drawn when fitted to the panel, or null if there is no image
+    private Rectangle getFitBounds() {
+        if (image == null) {
+            return null;
+        }
 
         int panelWidth = getWidth();
         int panelHeight = getHeight();
-        int imgWidth = image.getWidth();
-        int imgHeight = image.getHeight();
+        boolean swapsAxes = imageOrientation >= 5 && imageOrientation <= 8;
+        int imgWidth = swapsAxes ? image.getHeight() : image.getWidth();
+        int imgHeight = swapsAxes ? image.getWidth() : image.getHeight();
 
         double panelAspect = (double) panelWidth / panelHeight;
         double imgAspect = (double) imgWidth / imgHeight;
@@ -84,7 +416,71 @@ public class JImagePanel extends JPanel {
 
         int x = (panelWidth - drawWidth) / 2;
         int y = (panelHeight - drawHeight) / 2;
+        return new Rectangle(x, y, drawWidth, drawHeight);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        if (zoomed && sourceSize != null) {
+            paintZoomed((Graphics2D) g);
+            return;
+        }
+        if (image == null) return;
+
+        // Cast to Graphics2D and enable high-quality rendering
+        Graphics2D g2d = (Graphics2D) g.create();
+        try {
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                                 RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g2d.setRenderingHint(RenderingHints.KEY_RENDERING,
+                                 RenderingHints.VALUE_RENDER_QUALITY);
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                                 RenderingHints.VALUE_ANTIALIAS_ON);
+
+            Rectangle bounds = getFitBounds();
+            g2d.translate(bounds.x, bounds.y);
+            drawImageUpright(g2d, bounds.width, bounds.height);
+        } finally {
+            g2d.dispose();
+        }
+    }
 
-        g2d.drawImage(image, x, y, drawWidth, drawHeight, this);
+    // Draws the image upright into a width x height box at the origin, rotating it on the fly if it is as stored
+    private void drawImageUpright(Graphics2D g, double width, double height) {
+        if (imageOrientation < 2 || imageOrientation > 8) {
+            g.drawImage(image, 0, 0, (int) width, (int) height, this);
+            return;
+        }
+        boolean swapsAxes = imageOrientation >= 5;
+        AffineTransform transform = AffineTransform.getScaleInstance(
+                width / (swapsAxes ? image.getHeight() : image.getWidth()),
+                height / (swapsAxes ? image.getWidth() : image.getHeight()));
+        transform.concatenate(PhotoUtils.getExifTransform(imageOrientation, image.getWidth(), image.getHeight()));
+        g.drawImage(image, transform, this);
+    }
+
+    private void paintZoomed(Graphics2D g) {
+        Graphics2D g2d = (Graphics2D) g.create();
+        try {
+            g2d.transform(getZoomTransform());
+
+            // Stretch the fitted image underneath as a placeholder until the tiles arrive
+            if (image != null) {
+                g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                drawImageUpright(g2d, getUprightWidth(), getUprightHeight());
+            }
+
+            // Tiles are stored unrotated, so draw them through the EXIF transform at their stored positions
+            g2d.transform(PhotoUtils.getExifTransform(orientation, sourceSize.width, sourceSize.height));
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            int tileSize = AppConstants.ZOOM_TILE_SIZE;
+            for (Map.Entry<Point, BufferedImage> entry : tiles.entrySet()) {
+                Point tile = entry.getKey();
+                g2d.drawImage(entry.getValue(), tile.x * tileSize, tile.y * tileSize, this);
+            }
+        } finally {
+            g2d.dispose();
+        }
     }
 }
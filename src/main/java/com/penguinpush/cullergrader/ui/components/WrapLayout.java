@@ -4,70 +4,136 @@ import com.penguinpush.cullergrader.config.AppConstants;
 import javax.swing.*;
 import java.awt.*;
 
+/**
+ * Lays out equally sized cells left to right, wrapping into rows (or in one row), for a grid that may only
+ * hold components for some of its cells. The geometry comes from the item count and cell size, so the
+ * preferred size and cell positions don't depend on how many components exist; each JGridMedia is placed
+ * at the cell of its index.
+ *
+ * The columns and gap are only refitted when the viewport width or the grid changes, and the preferred size
+ * is cached until then, so relayouts and resizes cost the same for any number of items.
+ */
 public class WrapLayout extends FlowLayout {
 
     int gridMediaWidth;
     int gridMediaHeight;
     boolean singleRow;
+    private int itemCount = 0;
+    private int columns = 1;
+    private int fittedWidth = -1;  // viewport and scroll bar width the columns were fitted to, -1 to refit
+    private int fittedScrollBarWidth = -1;
+    private Dimension layoutSize;  // cached until the geometry changes
+    private boolean layoutSizeHasScrollBar;
 
     public WrapLayout(int align, boolean singleRow) {
         super(align);
         this.singleRow = singleRow;
     }
 
+    /**
+     * Sets what the grid holds: how many cells, and their size.
+     */
+    public void setGrid(int itemCount, int cellWidth, int cellHeight) {
+        if (itemCount == this.itemCount && cellWidth == gridMediaWidth && cellHeight == gridMediaHeight) {
+            return;
+        }
+        this.itemCount = itemCount;
+        this.gridMediaWidth = cellWidth;
+        this.gridMediaHeight = cellHeight;
+        fittedWidth = -1;
+        layoutSize = null;
+    }
+
+    // Fits the columns and horizontal gap to the viewport, unless the grid is a single row;
+    // only recomputed when the width or the grid changed
+    private void updateColumns(Container target) {
+        if (singleRow) {
+            columns = Math.max(1, itemCount);
+            return;
+        }
+
+        Container parent = target.getParent();
+        JScrollPane gridScrollPanel = (JScrollPane) parent.getParent();
+        JScrollBar verticalScrollBar = gridScrollPanel.getVerticalScrollBar();
+        int gridScrollBarWidth = gridScrollPanel.isVisible() ? verticalScrollBar.getWidth() : 0;
+        int maxWidth = parent.getWidth();
+        if (maxWidth == fittedWidth && gridScrollBarWidth == fittedScrollBarWidth) {
+            return;
+        }
+        fittedWidth = maxWidth;
+        fittedScrollBarWidth = gridScrollBarWidth;
+        layoutSize = null;
+
+        int minHgap = AppConstants.GRIDMEDIA_HGAP_MIN;
+        columns = Math.max(1, (maxWidth + minHgap - gridScrollBarWidth) / (gridMediaWidth + minHgap));
+        setHgap(calculateHgap(maxWidth, columns));
+    }
+
     private Dimension layoutSize(Container target) {
         synchronized (target.getTreeLock()) {
-            Container parent = target.getParent();
-            JScrollPane gridScrollPanel = (JScrollPane) parent.getParent();
-            JScrollBar verticalScrollBar = gridScrollPanel.getVerticalScrollBar();
-            int gridScrollBarWidth = gridScrollPanel.isVisible() ? verticalScrollBar.getWidth() : 0;
-
-            int column = 1;
-            int column_max = 1;
-            int row = 1;
-            int count = target.getComponentCount();
-            int maxWidth = target.getParent().getWidth();
-
-            if (!singleRow) {
-                // dynamically calculate horizontal gap to fit, only if it's not in single-row form
-                setHgap(calculateHgap(maxWidth, gridScrollBarWidth));
-            }
-            Dimension layoutSize = new Dimension(0, 0);
-
-            for (int index = 0; index < count; index++) {
-                Component gridMedia = target.getComponent(index);
-                gridMediaWidth = gridMedia.getWidth();
-                gridMediaHeight = gridMedia.getHeight();
-
-                if (columnToWidth(column) + gridMediaWidth > maxWidth && !singleRow) {
-                    // add to the height and loop back, save max width
-                    column_max = Math.max(column, column_max);
-                    column = 1;
-                    row += 1;
-                } else {
-                    column += 1;
+            updateColumns(target);
+
+            JScrollPane gridScrollPanel = (JScrollPane) target.getParent().getParent();
+            JScrollBar horizontalScrollBar = gridScrollPanel.getHorizontalScrollBar();
+            if (layoutSize == null || layoutSizeHasScrollBar != horizontalScrollBar.isVisible()) {
+                int rows = (itemCount + columns - 1) / columns;
+                int usedColumns = singleRow ? itemCount : Math.min(columns, itemCount);
+
+                layoutSize = new Dimension(0, 0);
+                layoutSize.width = columnToWidth(usedColumns) + getHgap();
+                layoutSize.height = rowToHeight(rows) + getVgap();
+
+                layoutSizeHasScrollBar = horizontalScrollBar.isVisible();
+                if (layoutSizeHasScrollBar) {
+                    layoutSize.height += horizontalScrollBar.getHeight();
                 }
             }
 
-            if (column == 1) {
-                // empty bottom row
-                row -= 1;
-            }
+            return new Dimension(layoutSize);  // callers may modify theirs
+        }
+    }
 
-            if (singleRow) {
-                column_max = Math.max(column, column_max) - 1;
+    @Override
+    public void layoutContainer(Container target) {
+        synchronized (target.getTreeLock()) {
+            updateColumns(target);
+            for (int index = 0; index < target.getComponentCount(); index++) {
+                Component component = target.getComponent(index);
+                int cell = component instanceof JGridMedia ? ((JGridMedia) component).getIndex() : index;
+                component.setBounds(getCellBounds(cell));
             }
+        }
+    }
 
-            layoutSize.width = columnToWidth(column_max) + getHgap();
-            layoutSize.height = rowToHeight(row) + getVgap();
-            
-            JScrollBar horizontalScrollBar = gridScrollPanel.getHorizontalScrollBar();
-            if (horizontalScrollBar.isVisible()) {
-                layoutSize.height += horizontalScrollBar.getHeight();
-            }
+    /**
+     * Where a cell is, as of the last layout.
+     */
+    public Rectangle getCellBounds(int index) {
+        int column = index % columns;
+        int row = index / columns;
+        return new Rectangle(getHgap() + columnToWidth(column), getVgap() + rowToHeight(row), gridMediaWidth, gridMediaHeight);
+    }
 
-            return layoutSize;
+    /**
+     * The first and last index of the cells that intersect an area of the grid, as of the last layout;
+     * last is below first if there are none.
+     */
+    public int[] getIndexRange(Rectangle area) {
+        if (itemCount == 0 || area.isEmpty()) {
+            return new int[] {0, -1};
         }
+
+        int first, last;
+        if (singleRow) {
+            first = Math.max(0, (area.x - getHgap()) / (gridMediaWidth + getHgap()));
+            last = (area.x + area.width - 1) / (gridMediaWidth + getHgap());
+        } else {
+            int firstRow = Math.max(0, (area.y - getVgap()) / (gridMediaHeight + getVgap()));
+            int lastRow = (area.y + area.height - 1) / (gridMediaHeight + getVgap());
+            first = firstRow * columns;
+            last = (lastRow + 1) * columns - 1;
+        }
+        return new int[] {first, Math.min(itemCount - 1, last)};
     }
 
     private int columnToWidth(int column) {
@@ -78,20 +144,10 @@ public class WrapLayout extends FlowLayout {
         return (row) * (gridMediaHeight + getVgap());
     }
 
-    private int calculateHgap(int availableWidth, int scrollBarWidth) {
-        int minHgap = AppConstants.GRIDMEDIA_HGAP_MIN;
-
-        int maxColumns = (availableWidth + minHgap - scrollBarWidth) / (gridMediaWidth + minHgap);
-        maxColumns = Math.max(1, maxColumns);
-
-        for (int hgap = gridMediaWidth; hgap >= minHgap; hgap--) {
-            int totalWidth = maxColumns * gridMediaWidth + (maxColumns + 1) * hgap;
-            if (totalWidth <= availableWidth) {
-                return hgap;
-            }
-        }
-
-        return minHgap;
+    // Widest gap that still fits the columns, spread evenly including both edges, at most a cell wide
+    private int calculateHgap(int availableWidth, int maxColumns) {
+        int hgap = Math.min(gridMediaWidth, (availableWidth - maxColumns * gridMediaWidth) / (maxColumns + 1));
+        return Math.max(AppConstants.GRIDMEDIA_HGAP_MIN, hgap);
     }
 
     @Override